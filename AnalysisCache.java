@@ -0,0 +1,649 @@
+package checkers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+/**
+ * Results of earlier analyses kept on disk, so that a restarted board or
+ * worker does not analyze positions again, and so that processes on one
+ * machine can share what each of them has found.  For each position, by
+ * its CheckersData.hashKey(), and each kind of engine, by its
+ * MoveSearch.engineId(), the cache holds the best move found, its score
+ * and the depth searched.  Engines are kept apart because their depths
+ * and scores do not compare: a deep Monte Carlo result must not stand in
+ * for, or keep out, an alpha-beta one.
+ *
+ * A cache is a directory of three files:
+ *
+ *    analysis.log    the results, appended in 24-byte records: the key
+ *                    (the position's mixed with the engine's), the
+ *                    packed move, the score, the depth and the engine as
+ *                    shorts, then a CRC32C of those 20 bytes
+ *    analysis.idx    an open-addressing hash table of keys and record
+ *                    numbers, memory-mapped by every process that uses
+ *                    the cache, after a 64-byte header
+ *    analysis.lock   locked while a process changes the other two
+ *
+ * Opening a cache maps the index and reads nothing else.  A lookup probes
+ * the index without locking and reads one record, which is only believed
+ * if its CRC is right and it has the key looked for, so a lookup that
+ * races with a change, or with a damaged index, is at worst a miss.  Each
+ * lookup stamps the entry with a clock kept in the index header.
+ *
+ * Storing a result takes the file lock, appends the record and then
+ * indexes it.  The header records how much of the log is indexed, and is
+ * marked dirty while the table is being changed.  Whoever next takes the
+ * lock indexes any records appended after that point, dropping a torn or
+ * damaged record at the end of the log, and rebuilds the whole index from
+ * the log if it was left dirty.  Nothing is synced to disk on each store:
+ * a result is lost only if the machine, not the process, goes down.
+ *
+ * The cache holds at most maxEntries positions.  Storing one more evicts
+ * the least recently used of a few entries picked at random.  Records
+ * that are evicted or replaced stay in the log until it holds twice
+ * maxEntries records, when the live ones are copied to a new log that
+ * replaces the old; the header counts these rewrites, so other processes
+ * know to reopen the log.  Disk use is thus bounded at about 80 bytes for
+ * each entry allowed.
+ *
+ * One process should open a directory only once.
+ */
+
+public class AnalysisCache implements Closeable {
+
+   static final String LOG_FILE = "analysis.log";
+   static final String INDEX_FILE = "analysis.idx";
+   static final String LOCK_FILE = "analysis.lock";
+
+   static final int LOG_MAGIC = 0x434B414C;     // "CKAL"
+   static final int INDEX_MAGIC = 0x434B4149;   // "CKAI"
+   static final int VERSION = 2;
+
+   static final int LOG_HEADER_SIZE = 8;        // magic and version
+   static final int RECORD_SIZE = 24;
+   static final int INDEX_HEADER_SIZE = 64;
+   static final int SLOT_SIZE = 16;             // key, record number (0 for an empty slot), last use
+
+   static final int SAMPLES = 8;                // entries looked at to choose one to evict
+
+   /* Offsets in the index header. */
+
+   private static final int MAGIC_AT = 0;
+   private static final int VERSION_AT = 4;
+   private static final int SLOTS_AT = 8;
+   private static final int MAX_ENTRIES_AT = 12;
+   private static final int COUNT_AT = 16;
+   private static final int DIRTY_AT = 20;
+   private static final int LOG_LENGTH_AT = 24;   // bytes of the log that are indexed
+   private static final int CLOCK_AT = 32;        // counts lookups and stores, for the last use stamps
+   private static final int GENERATION_AT = 40;   // counts rewrites of the log
+
+   private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+   private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+   /**
+    * One analysis result.
+    */
+   static final class Entry {
+      final long key;     // as stored, by entryKey()
+      final int move;     // packed, as by CheckersMove.toPacked()
+      final int score;    // for the player to move
+      final int depth;
+      final int engine;   // MoveSearch.engineId() of the engine that found it
+
+      Entry(long key, int move, int score, int depth, int engine) {
+         this.key = key;
+         this.move = move;
+         this.score = score;
+         this.depth = depth;
+         this.engine = engine;
+      }
+   }
+
+   private final Path directory;
+   private final FileChannel lockChannel;
+   private final FileChannel indexChannel;
+   private final MappedByteBuffer index;
+   private final int slots;
+   private final int mask;
+   private final int maxEntries;
+   private final Random random = new Random();
+
+   private volatile FileChannel log;
+   private volatile long logGeneration;   // the rewrite of the log that log has open
+
+
+   private AnalysisCache(Path directory, int maxEntries) throws IOException {
+      this.directory = directory;
+      Files.createDirectories(directory);
+      lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE);
+      FileLock lock = lockChannel.lock();
+      try {
+         indexChannel = FileChannel.open(directory.resolve(INDEX_FILE), StandardOpenOption.CREATE,
+               StandardOpenOption.READ, StandardOpenOption.WRITE);
+         int stored = storedSlots();
+         int wanted = Integer.highestOneBit(Math.max(1, maxEntries - 1)) << 2;   // at most half full
+         int size = stored > 0 ? stored : wanted;
+         index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_SIZE + (long) size * SLOT_SIZE);
+         index.order(ByteOrder.nativeOrder());
+         slots = size;
+         mask = size - 1;
+         if (stored == 0) {
+            for (int i = 0; i < index.capacity(); i += 8)
+               index.putLong(i, 0);
+            index.putInt(MAGIC_AT, INDEX_MAGIC);
+            index.putInt(VERSION_AT, VERSION);
+            index.putInt(SLOTS_AT, size);
+            index.putInt(MAX_ENTRIES_AT, Math.min(maxEntries, size / 2));
+            index.putInt(DIRTY_AT, 1);   // built from the log below
+         }
+         this.maxEntries = index.getInt(MAX_ENTRIES_AT);
+         openLog();
+         recover();
+      }
+      finally {
+         lock.release();
+      }
+   }
+
+
+   /**
+    * Open the cache in directory, creating it if need be, holding at most
+    * maxEntries positions.  If the directory already has a cache, its
+    * index keeps the size it was made with.
+    */
+   static AnalysisCache open(Path directory, int maxEntries) throws IOException {
+      return new AnalysisCache(directory, maxEntries);
+   }
+
+
+   /**
+    * The number of slots in the index file, or 0 if it is missing or not
+    * a valid index.
+    */
+   private int storedSlots() throws IOException {
+      ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE).order(ByteOrder.nativeOrder());
+      if (indexChannel.size() < INDEX_HEADER_SIZE || read(indexChannel, header, 0) < INDEX_HEADER_SIZE)
+         return 0;
+      int size = header.getInt(SLOTS_AT);
+      int max = header.getInt(MAX_ENTRIES_AT);
+      boolean valid = header.getInt(MAGIC_AT) == INDEX_MAGIC && header.getInt(VERSION_AT) == VERSION
+            && size > 0 && Integer.bitCount(size) == 1 && max > 0 && max <= size / 2
+            && indexChannel.size() == INDEX_HEADER_SIZE + (long) size * SLOT_SIZE;
+      return valid ? size : 0;
+   }
+
+
+   /**
+    * Open the log, writing its header if it is new.
+    */
+   private void openLog() throws IOException {
+      long generation = (long) LONGS.getVolatile(index, GENERATION_AT);
+      FileChannel channel = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+      ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+      if (channel.size() > 0 && (read(channel, header, 0) < LOG_HEADER_SIZE || header.getInt(0) != LOG_MAGIC
+            || header.getInt(4) > VERSION)) {
+         channel.close();
+         throw new IOException("Not an analysis log: " + directory.resolve(LOG_FILE));
+      }
+      if (channel.size() == 0 || header.getInt(4) < VERSION) {   // new, or of an older version: start over
+         channel.truncate(0);
+         header.clear();
+         header.putInt(LOG_MAGIC).putInt(VERSION).flip();
+         channel.write(header, 0);
+      }
+      FileChannel old = log;
+      log = channel;
+      logGeneration = generation;
+      if (old != null)
+         old.close();
+   }
+
+
+   /**
+    * Reopen the log if another process has rewritten it, or if it was
+    * closed by an interrupt.
+    */
+   private synchronized void checkLog() throws IOException {
+      if ((long) LONGS.getVolatile(index, GENERATION_AT) != logGeneration || !log.isOpen())
+         openLog();
+   }
+
+
+   int size() {
+      return index.getInt(COUNT_AT);
+   }
+
+
+   int maxEntries() {
+      return maxEntries;
+   }
+
+
+   long logBytes() {
+      return index.getLong(LOG_LENGTH_AT);
+   }
+
+
+   /**
+    * The key under which the results of engine for a position are kept.
+    */
+   private static long entryKey(long positionKey, int engine) {
+      return positionKey ^ engine * 0x9E3779B97F4A7C15L;
+   }
+
+
+   /**
+    * The result stored for the position with the given key by the given
+    * kind of engine, or null if there is none.  Needs no lock, so any
+    * number of threads and processes may look up at once; a result that
+    * cannot be read counts as missing.
+    */
+   Entry get(long positionKey, int engine) {
+      long key = entryKey(positionKey, engine);
+      try {
+         if ((long) LONGS.getVolatile(index, GENERATION_AT) != logGeneration || !log.isOpen())
+            checkLog();
+         int slot = (int) key & mask;
+         for (int probes = 0; probes < slots; probes++, slot = (slot + 1) & mask) {
+            int offset = INDEX_HEADER_SIZE + slot * SLOT_SIZE;
+            int record = (int) INTS.getAcquire(index, offset + 8);
+            if (record == 0)
+               return null;
+            if ((long) LONGS.getOpaque(index, offset) == key) {
+               Entry entry = readRecord(log, record);
+               if (entry == null || entry.key != key || entry.engine != engine)
+                  return null;
+               touch(slot);
+               return entry;
+            }
+         }
+         return null;
+      }
+      catch (IOException e) {
+         return null;
+      }
+   }
+
+
+   /**
+    * Store the result of engine analyzing the position with the given key,
+    * unless the cache already has a deeper result for it by the same kind
+    * of engine.
+    */
+   synchronized void put(long positionKey, int engine, int move, int score, int depth) throws IOException {
+      long key = entryKey(positionKey, engine);
+      FileLock lock = lockChannel.lock();
+      try {
+         recover();
+         int slot = find(key);
+         if (slot >= 0) {
+            Entry old = readRecord(log, record(slot));
+            if (old != null && old.key == key && old.engine == engine && old.depth > depth) {
+               touch(slot);
+               return;
+            }
+         }
+         long length = index.getLong(LOG_LENGTH_AT);
+         ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+         putRecord(buffer, key, move, score, depth, engine);
+         buffer.flip();
+         write(log, buffer, length);
+         setDirty(true);
+         add(key, recordNumber(length));
+         index.putLong(LOG_LENGTH_AT, length + RECORD_SIZE);
+         setDirty(false);
+         if ((length + RECORD_SIZE - LOG_HEADER_SIZE) / RECORD_SIZE >= 2L * maxEntries)
+            compact();
+      }
+      finally {
+         lock.release();
+      }
+   }
+
+
+   /**
+    * Bring the index up to date with the log, after another process or a
+    * crash left it behind.  Called with the file lock held.
+    */
+   private void recover() throws IOException {
+      checkLog();
+      long indexed = index.getLong(LOG_LENGTH_AT);
+      if (index.getInt(DIRTY_AT) != 0 || indexed < LOG_HEADER_SIZE || indexed > log.size())
+         rebuild();
+      else if (indexed < log.size())
+         replay(indexed);
+   }
+
+
+   /**
+    * Empty the index and index the whole log again.
+    */
+   private void rebuild() throws IOException {
+      setDirty(true);
+      for (int i = INDEX_HEADER_SIZE; i < index.capacity(); i += 8)
+         index.putLong(i, 0);
+      index.putInt(COUNT_AT, 0);
+      index.putLong(LOG_LENGTH_AT, LOG_HEADER_SIZE);
+      replay(LOG_HEADER_SIZE);
+   }
+
+
+   /**
+    * Index the records of the log from position on.  The log is cut
+    * before the first record that is incomplete or fails its CRC: it was
+    * being written when a process died.
+    */
+   private void replay(long position) throws IOException {
+      setDirty(true);
+      ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+      long end = log.size();
+      while (position < end) {
+         buffer.clear();
+         int got = read(log, buffer, position);
+         int used = 0;
+         for (; used + RECORD_SIZE <= got; used += RECORD_SIZE) {
+            Entry entry = getRecord(buffer, used);
+            if (entry == null)
+               break;
+            add(entry.key, recordNumber(position + used));
+         }
+         position += used;
+         if (used < got || got < buffer.capacity())
+            break;
+      }
+      if (position < end)
+         log.truncate(position);
+      index.putLong(LOG_LENGTH_AT, position);
+      setDirty(false);
+   }
+
+
+   /**
+    * Copy the records still in the index to a new log, and put it in
+    * place of the old one.  If this is cut short, the index is left dirty
+    * and is rebuilt from whichever log is then in place.
+    */
+   private void compact() throws IOException {
+      setDirty(true);
+      Path temporary = directory.resolve(LOG_FILE + ".tmp");
+      int[] renumbered = new int[slots];
+      boolean damaged = false;
+      long length = 0;
+      try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+         ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+         buffer.putInt(LOG_MAGIC).putInt(VERSION);
+         for (int slot = 0; slot < slots; slot++) {
+            if (record(slot) == 0)
+               continue;
+            Entry entry = readRecord(log, record(slot));
+            if (entry == null || entry.key != key(slot)) {
+               damaged = true;
+               continue;
+            }
+            if (buffer.remaining() < RECORD_SIZE) {
+               buffer.flip();
+               length += write(out, buffer, length);
+               buffer.clear();
+            }
+            renumbered[slot] = recordNumber(length + buffer.position());
+            putRecord(buffer, entry.key, entry.move, entry.score, entry.depth, entry.engine);
+         }
+         buffer.flip();
+         length += write(out, buffer, length);
+         out.force(false);
+      }
+      Files.move(temporary, directory.resolve(LOG_FILE), StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      if (!damaged)
+         for (int slot = 0; slot < slots; slot++)
+            if (renumbered[slot] != 0)
+               INTS.setRelease(index, INDEX_HEADER_SIZE + slot * SLOT_SIZE + 8, renumbered[slot]);
+      index.putLong(LOG_LENGTH_AT, length);
+      LONGS.getAndAdd(index, GENERATION_AT, 1L);
+      openLog();
+      if (damaged)
+         rebuild();   // drops the entries whose records could not be read
+      setDirty(false);
+   }
+
+
+   /**
+    * The slot holding key, or -(the empty slot where it would go) - 1.
+    */
+   private int find(long key) {
+      int slot = (int) key & mask;
+      while (record(slot) != 0) {
+         if (key(slot) == key)
+            return slot;
+         slot = (slot + 1) & mask;
+      }
+      return -slot - 1;
+   }
+
+
+   /**
+    * Point key at a record, adding key to the index if it is new.  Called
+    * with the file lock held and the index marked dirty.
+    */
+   private void add(long key, int record) {
+      int slot = find(key);
+      if (slot < 0) {
+         if (index.getInt(COUNT_AT) >= maxEntries) {
+            evict();
+            slot = find(key);
+         }
+         slot = -slot - 1;
+         LONGS.setOpaque(index, INDEX_HEADER_SIZE + slot * SLOT_SIZE, key);
+         index.putInt(COUNT_AT, index.getInt(COUNT_AT) + 1);
+      }
+      touch(slot);
+      INTS.setRelease(index, INDEX_HEADER_SIZE + slot * SLOT_SIZE + 8, record);
+   }
+
+
+   /**
+    * Remove the entry used longest ago among SAMPLES picked at random.
+    */
+   private void evict() {
+      int now = (int) (long) LONGS.getVolatile(index, CLOCK_AT);
+      int victim = -1;
+      int oldest = 0;
+      for (int seen = 0, tries = 0; seen < SAMPLES && tries < slots; tries++) {
+         int slot = random.nextInt(slots);
+         if (record(slot) == 0)
+            continue;
+         seen++;
+         int age = now - (int) INTS.getOpaque(index, INDEX_HEADER_SIZE + slot * SLOT_SIZE + 12);
+         if (victim < 0 || Integer.compareUnsigned(age, oldest) > 0) {
+            victim = slot;
+            oldest = age;
+         }
+      }
+      if (victim >= 0)
+         remove(victim);
+   }
+
+
+   /**
+    * Empty a slot, moving back any later entries of its probe run that
+    * could not otherwise be found.
+    */
+   private void remove(int hole) {
+      for (int slot = (hole + 1) & mask; record(slot) != 0; slot = (slot + 1) & mask) {
+         int home = (int) key(slot) & mask;
+         if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+            int from = INDEX_HEADER_SIZE + slot * SLOT_SIZE;
+            int to = INDEX_HEADER_SIZE + hole * SLOT_SIZE;
+            LONGS.setOpaque(index, to, key(slot));
+            INTS.setOpaque(index, to + 12, INTS.getOpaque(index, from + 12));
+            INTS.setRelease(index, to + 8, record(slot));
+            hole = slot;
+         }
+      }
+      INTS.setRelease(index, INDEX_HEADER_SIZE + hole * SLOT_SIZE + 8, 0);
+      LONGS.setOpaque(index, INDEX_HEADER_SIZE + hole * SLOT_SIZE, 0L);
+      index.putInt(COUNT_AT, index.getInt(COUNT_AT) - 1);
+   }
+
+
+   private long key(int slot) {
+      return (long) LONGS.getOpaque(index, INDEX_HEADER_SIZE + slot * SLOT_SIZE);
+   }
+
+   private int record(int slot) {
+      return (int) INTS.getAcquire(index, INDEX_HEADER_SIZE + slot * SLOT_SIZE + 8);
+   }
+
+   private void touch(int slot) {
+      long now = (long) LONGS.getAndAdd(index, CLOCK_AT, 1L);
+      INTS.setOpaque(index, INDEX_HEADER_SIZE + slot * SLOT_SIZE + 12, (int) now);
+   }
+
+   private void setDirty(boolean dirty) {
+      INTS.setVolatile(index, DIRTY_AT, dirty ? 1 : 0);
+   }
+
+
+   /* Records are numbered from 1, so that 0 can mark an empty slot. */
+
+   private static int recordNumber(long position) {
+      return (int) ((position - LOG_HEADER_SIZE) / RECORD_SIZE) + 1;
+   }
+
+   private static long recordPosition(int record) {
+      return LOG_HEADER_SIZE + (record - 1) * (long) RECORD_SIZE;
+   }
+
+
+   /**
+    * Read one record, or return null if it is missing or damaged.
+    */
+   private static Entry readRecord(FileChannel log, int record) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+      if (read(log, buffer, recordPosition(record)) < RECORD_SIZE)
+         return null;
+      return getRecord(buffer, 0);
+   }
+
+
+   private static Entry getRecord(ByteBuffer buffer, int offset) {
+      CRC32C crc = new CRC32C();
+      crc.update(buffer.slice(offset, RECORD_SIZE - 4));
+      if ((int) crc.getValue() != buffer.getInt(offset + RECORD_SIZE - 4))
+         return null;
+      return new Entry(buffer.getLong(offset), buffer.getInt(offset + 8), buffer.getInt(offset + 12),
+            buffer.getShort(offset + 16), buffer.getShort(offset + 18));
+   }
+
+
+   private static void putRecord(ByteBuffer buffer, long key, int move, int score, int depth, int engine) {
+      int start = buffer.position();
+      buffer.putLong(key).putInt(move).putInt(score).putShort((short) Math.min(depth, Short.MAX_VALUE))
+            .putShort((short) engine);
+      CRC32C crc = new CRC32C();
+      crc.update(buffer.slice(start, RECORD_SIZE - 4));
+      buffer.putInt((int) crc.getValue());
+   }
+
+
+   /**
+    * Fill buffer from channel at position, as far as the channel goes.
+    * Returns the number of bytes read.
+    */
+   private static int read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+      int start = buffer.position();
+      while (buffer.hasRemaining()) {
+         int n = channel.read(buffer, position + buffer.position() - start);
+         if (n < 0)
+            break;
+      }
+      return buffer.position() - start;
+   }
+
+
+   private static int write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+      int start = buffer.position();
+      while (buffer.hasRemaining())
+         channel.write(buffer, position + buffer.position() - start);
+      return buffer.position() - start;
+   }
+
+
+   @Override
+   public synchronized void close() throws IOException {
+      index.force();
+      log.close();
+      indexChannel.close();
+      lockChannel.close();
+   }
+
+
+   /**
+    * Command line:  AnalysisCache directory [-entries n] [-fill n]
+    * Opens the cache in the directory, or makes one holding at most the
+    * given number of entries (default 1048576), and prints how long that
+    * took and what the cache holds.  With -fill, stores n random results
+    * and looks each of them up again, and prints the rates.
+    */
+   public static void main(String[] args) throws IOException {
+      if (args.length < 1) {
+         System.out.println("Usage: AnalysisCache directory [-entries n] [-fill n]");
+         return;
+      }
+      int entries = 1 << 20;
+      int fill = 0;
+      for (int i = 1; i < args.length; i++) {
+         if (args[i].equals("-entries") && i + 1 < args.length)
+            entries = Integer.parseInt(args[++i]);
+         else if (args[i].equals("-fill") && i + 1 < args.length)
+            fill = Integer.parseInt(args[++i]);
+      }
+      long start = System.nanoTime();
+      try (AnalysisCache cache = open(Paths.get(args[0]), entries)) {
+         System.out.printf("opened in %.2f ms: %d of %d entries, %d KB of log%n", (System.nanoTime() - start) / 1e6,
+               cache.size(), cache.maxEntries(), cache.logBytes() >> 10);
+         if (fill == 0)
+            return;
+         Random random = new Random();
+         long seed = random.nextLong();
+         random.setSeed(seed);
+         start = System.nanoTime();
+         for (int i = 0; i < fill; i++)
+            cache.put(random.nextLong(), MoveSearch.ALPHA_BETA, random.nextInt(1 << 16), random.nextInt(2001) - 1000,
+                  random.nextInt(30));
+         double putSeconds = (System.nanoTime() - start) / 1e9;
+         random.setSeed(seed);
+         int hits = 0;
+         start = System.nanoTime();
+         for (int i = 0; i < fill; i++) {
+            Entry entry = cache.get(random.nextLong(), MoveSearch.ALPHA_BETA);
+            random.nextInt();
+            random.nextInt();
+            random.nextInt();
+            if (entry != null)
+               hits++;
+         }
+         double getSeconds = (System.nanoTime() - start) / 1e9;
+         System.out.printf("%.0f stores/sec, %.0f lookups/sec, %d of %d found; %d entries, %d KB of log%n",
+               fill / putSeconds, fill / getSeconds, hits, fill, cache.size(), cache.logBytes() >> 10);
+      }
+   }
+}
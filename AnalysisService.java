@@ -0,0 +1,198 @@
+package checkers;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.SwingUtilities;
+
+/**
+ * This class runs searches for the Swing board on a background thread, so
+ * that the Event Dispatch Thread never waits for the engine.  One analysis
+ * runs at a time: starting a new one cancels the last.  An analysis has a
+ * hard time budget, and each depth the engine finishes is passed to the
+ * listener on the Event Dispatch Thread, so the board can show steadily
+ * better suggestions while the search goes on.
+ *
+ * Cancelling is cooperative: the engine is asked to stop and returns at
+ * its next check, which comes every few thousand nodes.  Results of an
+ * analysis that has been cancelled or replaced are never delivered.
+ *
+ * If an opening book is set and has the position, its move is delivered
+ * at once as the final suggestion and the engine is not started.  The
+ * same goes for a position found in the analysis cache, where the result
+ * of every analysis is stored, including one that was cancelled or
+ * replaced: it is stored with the last depth it finished, unless the
+ * cache has a deeper result already.  The cache is only used where a
+ * turn starts: in the middle of a jump chain the legal moves are only the
+ * chaining piece's next jumps, so the best of them is not a result for
+ * the position as such.
+ */
+
+public class AnalysisService {
+
+   /**
+    * The best move found so far, and how it was found.
+    */
+   static final class Suggestion {
+      final CheckersMove move;
+      final int depth;
+      final int score;
+      final long nodesPerSecond;
+      final boolean finished;   // the analysis is over; no better suggestion will follow
+      final boolean fromBook;   // the move comes from the opening book, not from a search
+      final boolean fromCache;  // the move comes from an earlier analysis in the cache
+
+      Suggestion(CheckersMove move, int depth, int score, long nodesPerSecond, boolean finished) {
+         this(move, depth, score, nodesPerSecond, finished, false, false);
+      }
+
+      Suggestion(CheckersMove move, int depth, int score, long nodesPerSecond, boolean finished, boolean fromBook,
+            boolean fromCache) {
+         this.move = move;
+         this.depth = depth;
+         this.score = score;
+         this.nodesPerSecond = nodesPerSecond;
+         this.finished = finished;
+         this.fromBook = fromBook;
+         this.fromCache = fromCache;
+      }
+   }
+
+   /**
+    * Receives suggestions, always on the Event Dispatch Thread.
+    */
+   interface Listener {
+      void suggest(Suggestion suggestion);
+   }
+
+   private final MoveSearch search;
+   private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "analysis");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.NORM_PRIORITY - 1);   // painting comes first
+      return thread;
+   });
+
+   private final AtomicLong generation = new AtomicLong();   // counts analyses started; the current one is the last
+
+   private OpeningBook book;   // answers before the engine is asked, or null
+   private AnalysisCache cache;   // results of earlier analyses, or null
+
+
+   AnalysisService(MoveSearch search) {
+      this.search = search;
+   }
+
+
+   void setOpeningBook(OpeningBook book) {
+      this.book = book;
+   }
+
+
+   void setCache(AnalysisCache cache) {
+      this.cache = cache;
+   }
+
+
+   /**
+    * Cancel any analysis that is running, and start analyzing the position
+    * with player to move for at most budgetMillis milliseconds.  The
+    * position is taken as an immutable Position and the moves are copied,
+    * so the caller may go on changing them; the board the engine searches
+    * is built on the analysis thread.
+    */
+   void analyze(CheckersData position, int player, CheckersMove[] legalMoves, long budgetMillis, Listener listener) {
+      long id = cancel();
+      CheckersMove bookMove = book == null ? null : book.choose(position, player, legalMoves, 1, null);
+      if (bookMove != null) {
+         deliver(id, listener, new Suggestion(bookMove, 0, 0, 0, true, true, false));
+         return;
+      }
+      boolean cacheable = cache != null && startsTurn(position, player, legalMoves);
+      AnalysisCache.Entry cached = cacheable ? cache.get(position.hashKey(player), search.engineId()) : null;
+      CheckersMove cachedMove = cached == null ? null : CheckersMove.findPacked(legalMoves, cached.move);
+      if (cachedMove != null) {
+         deliver(id, listener, new Suggestion(cachedMove, cached.depth, cached.score, 0, true, false, true));
+         return;
+      }
+      Position snapshot = Position.of(position, player);
+      CheckersMove[] moves = legalMoves.clone();
+      executor.execute(() -> run(id, snapshot, moves, budgetMillis, cacheable, listener));
+   }
+
+
+   /**
+    * Whether legalMoves are all the moves player has in position, and not
+    * just the rest of a jump chain.  They are always some of those moves,
+    * so it is enough to count them.
+    */
+   private static boolean startsTurn(CheckersData position, int player, CheckersMove[] legalMoves) {
+      CheckersMove[] all = position.getValidMoves(player);
+      return all != null && all.length == legalMoves.length;
+   }
+
+
+   /**
+    * Stop the analysis that is running, if any.  Returns the number the
+    * next analysis will have.
+    */
+   long cancel() {
+      long next = generation.incrementAndGet();
+      search.stop();
+      return next;
+   }
+
+
+   private void run(long id, Position position, CheckersMove[] moves, long budgetMillis, boolean cacheable,
+         Listener listener) {
+      if (generation.get() != id)
+         return;   // cancelled before it started
+      long start = System.currentTimeMillis();
+      search.setProgress((best, depth, score) -> {
+         if (generation.get() != id) {
+            search.stop();   // a stop() that came before the search started was lost
+            return;
+         }
+         long nodesPerSecond = search.nodesSoFar() * 1000 / Math.max(1, System.currentTimeMillis() - start);
+         deliver(id, listener, new Suggestion(best, depth, score, nodesPerSecond, false));
+      });
+      CheckersMove best = search.findBestMove(position.toData(), position.player, moves, budgetMillis);
+      search.setProgress(null);
+      deliver(id, listener, new Suggestion(best, search.getDepthReached(), search.getBestScore(),
+            search.getNodesPerSecond(), true));
+      if (cacheable && best != null && moves.length > 1 && search.getDepthReached() > 0)
+         store(position, best);
+   }
+
+
+   /**
+    * Keep the result of an analysis, so that it is not repeated after a
+    * restart or by another process.  If the analysis was stopped, best is
+    * the move of the last depth it finished, and the depth and score
+    * reported by the search are those of that depth.
+    */
+   private void store(Position position, CheckersMove best) {
+      try {
+         cache.put(position.hashKey(), search.engineId(), best.toPacked(), search.getBestScore(),
+               search.getDepthReached());
+      }
+      catch (java.io.IOException e) {
+         System.err.println("Cannot store analysis: " + e.getMessage());
+      }
+   }
+
+
+   private void deliver(long id, Listener listener, Suggestion suggestion) {
+      SwingUtilities.invokeLater(() -> {
+         if (generation.get() == id)
+            listener.suggest(suggestion);
+      });
+   }
+
+
+   void shutdown() {
+      cancel();
+      executor.shutdownNow();
+      search.shutdown();
+   }
+}
@@ -2,6 +2,7 @@ package checkers;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
 import javax.swing.*;
 
 public class Checkers extends JPanel {
@@ -10,6 +11,8 @@ public class Checkers extends JPanel {
 
 	public static void main(String[] args) {
 		
+      EngineMetrics.install();
+      
       JFrame window = new JFrame("Checkers Game");
       
       Checkers content = new Checkers();
@@ -68,21 +71,41 @@ public class Checkers extends JPanel {
 	 */
 	private static final long serialVersionUID = 1L;
 
-	CheckersData board;  // Contains the data for the board, 
-      					   // also has the legal moves
-      
-      boolean gameInProgress; //Keeps track whether the game is on or not
+	GameSession game;  // The state of the game: the board, whose turn it is,
+      					   // and the legal moves
       
-      /* The following three data fields are valid only when the game is on. */
+      CheckersData board;  // The data for the board, the same object as game.board
       
-      int currentPlayer;      //this keeps of the player whose turn it is to play
+      /* The following two data fields are valid only when the game is on. */
       
       int rowChosen;
       int colChosen;  // when the current player clicks on a piece, 
       								// these variables record the row and column of that piece
       
-      CheckersMove[] validMoves;  // An array containing the legal moves for the
-                                  //   current player.
+      MoveSearch engine = createEngine(Math.max(1, ParallelSearch.defaultThreads() - 1));
+                                  // finds the move suggested by the hint button, leaving
+                                  // a processor free for painting
+      
+      AnalysisService analysis = new AnalysisService(engine);
+                                  // runs the engine in the background while a player thinks
+      
+      AnalysisService.Suggestion suggestion;  // the best move found so far in the current position
+      
+      boolean showingHint;    // the hint button was pressed, so each better suggestion is shown
+      
+      CheckersMove hintMove;  // the suggested move, hi-lighted until a move is made
+      
+      static final long PONDER_MILLIS = 60000;  // how long the engine may think about one position
+      
+      static final int CACHE_ENTRIES = 1 << 18;  // positions kept in the analysis cache, about 20 MB of disk
+      
+      BufferedImage boardImage;  // the border and the squares, drawn once and copied on each repaint
+      
+      BufferedImage[] pieceImages = new BufferedImage[5];  // one image for each kind of piece,
+                                                           // indexed by the CheckersData piece codes
+      
+      double imageScaleX = 1, imageScaleY = 1;  // device pixels per unit in the cached images, taken
+                                                // from the screen's transform so they stay sharp when scaled
       
 
       /**
@@ -98,25 +121,108 @@ public class Checkers extends JPanel {
          helpMessage = new JLabel("",JLabel.CENTER);
          helpMessage.setFont(new  Font("Arial", Font.BOLD, 12));
          helpMessage.setForeground(Color.black);
-         board = new CheckersData();
+         game = new GameSession();
+         board = game.board;
+         String endgames = System.getProperty("checkers.endgames");  // directory made by EndgameGenerator
+         if (endgames != null && engine instanceof ParallelSearch)
+            ((ParallelSearch) engine).setEndgameDatabase(new EndgameDatabase(new java.io.File(endgames)));
+         String book = System.getProperty("checkers.book");  // file made by OpeningBook
+         if (book != null) {
+            try {
+               analysis.setOpeningBook(OpeningBook.open(java.nio.file.Paths.get(book)));
+            }
+            catch (java.io.IOException e) {
+               System.err.println("Cannot open opening book " + book + ": " + e.getMessage());
+            }
+         }
+         String cache = System.getProperty("checkers.cache");  // directory shared by every board on this machine
+         if (cache != null) {
+            try {
+               analysis.setCache(AnalysisCache.open(java.nio.file.Paths.get(cache), CACHE_ENTRIES));
+            }
+            catch (java.io.IOException e) {
+               System.err.println("Cannot open analysis cache " + cache + ": " + e.getMessage());
+            }
+         }
          doNewGame();
       }
       
+      /**
+       * The engine named by the checkers.engine system property: "mcts"
+       * for Monte Carlo tree search, or else alpha-beta search.
+       */
+      static MoveSearch createEngine(int threads) {
+         if ("mcts".equalsIgnoreCase(System.getProperty("checkers.engine")))
+            return new MonteCarloSearch(threads, 1 << 20);
+         return new ParallelSearch(threads, 64);
+      }
+      
       @Override
 	  	public void actionPerformed(ActionEvent e) {
 	  		Object src = e.getSource();
-	          if (src == hintButton)
+	          if (src == hintButton) {
+	             showHint();
 	             helpMessage.setVisible(true);
+	          }
 	  	}
       
+      /**
+       * Show the best move the engine has found so far for the current
+       * player, and keep showing better ones as the engine finds them.
+       */
+      void showHint() {
+         if (!game.gameInProgress)
+            return;
+         showingHint = true;
+         if (suggestion != null)
+            showSuggestion();
+         else
+            helpMessage.setText("Hint:  thinking...");
+      }
+      
+      /**
+       * Start the engine on the current position, where it goes on
+       * thinking (pondering) until a move is made or its time runs out.
+       * Called after every change to the position.
+       */
+      void ponder() {
+         suggestion = null;
+         showingHint = false;
+         if (game.gameInProgress)
+            analysis.analyze(board, game.currentPlayer, game.validMoves, PONDER_MILLIS, this::suggest);
+         else
+            analysis.cancel();
+      }
+      
+      /**
+       * Called on the Event Dispatch Thread with each better move the
+       * engine finds in the current position.
+       */
+      void suggest(AnalysisService.Suggestion better) {
+         suggestion = better;
+         if (showingHint)
+            showSuggestion();
+      }
+      
+      void showSuggestion() {
+         int before = highlightedSquares();
+         hintMove = suggestion.move;
+         helpMessage.setText("Hint:  move from row " + hintMove.r1 + ", column " + hintMove.c1
+               + " to row " + hintMove.r2 + ", column " + hintMove.c2
+               + (suggestion.fromBook ? "  (opening book)"
+                  : suggestion.fromCache ? "  (depth " + suggestion.depth + ", from the analysis cache)"
+                     : "  (depth " + suggestion.depth + ", " + suggestion.nodesPerSecond + " nodes/sec"
+                        + (suggestion.finished ? ")" : ", thinking)")));
+         repaintSquares(before | highlightedSquares());
+      }
+      
       void doNewGame() {
-         board.setUpGame();   // Set up the pieces.
-         currentPlayer = CheckersData.RED;   // RED starts the game first.
-         validMoves = board.getValidMoves(CheckersData.RED);  // Get RED's legal moves.
+         game.newGame();   // Set up the pieces; RED starts the game first.
          rowChosen = -1;   // RED has not yet selected a piece to move.
-         helpMessage.setText("Red:  Make your move.");
-         gameInProgress = true;
+         hintMove = null;
+         helpMessage.setText(game.message);
          hintButton.setEnabled(true);
+         ponder();
          
          repaint();
       }
@@ -128,15 +234,18 @@ public class Checkers extends JPanel {
        */
       void selectSquare(int row, int col) {
          
+         CheckersMove[] validMoves = game.validMoves;
+         
          for (int i = 0; i < validMoves.length; i++)
             if (validMoves[i].r1 == row && validMoves[i].c1 == col) {
+               int before = highlightedSquares();
                rowChosen = row;
                colChosen = col;
-               if (currentPlayer == CheckersData.RED)
+               if (game.currentPlayer == CheckersData.RED)
                   helpMessage.setText("RED:  Make your move.");
                else
                   helpMessage.setText("BLACK:  Make your move.");
-               repaint();
+               repaintSquares(before | highlightedSquares());
                return;
             }
          
@@ -145,12 +254,11 @@ public class Checkers extends JPanel {
             return;
          }
          
-         for (int i = 0; i < validMoves.length; i++)
-            if (validMoves[i].r1 == rowChosen && validMoves[i].c1 == colChosen
-                  && validMoves[i].r2 == row && validMoves[i].c2 == col) {
-               doMakeMove(validMoves[i]);
-               return;
-            }
+         CheckersMove move = game.findMove(rowChosen, colChosen, row, col);
+         if (move != null) {
+            doMakeMove(move);
+            return;
+         }
          
          helpMessage.setText("Click the square you want to move to.");
          
@@ -164,47 +272,27 @@ public class Checkers extends JPanel {
        */
       void doMakeMove(CheckersMove move) {
          
-         board.doMakeMove(move);
+         int before = highlightedSquares() | squareBit(move.r1, move.c1) | squareBit(move.r2, move.c2);
+         if (move.isJump())
+            before |= squareBit((move.r1 + move.r2) / 2, (move.c1 + move.c2) / 2);
          
+         game.makeMove(move);
+         hintMove = null;
+         ponder();
+         helpMessage.setText(game.message);
+         hintButton.setEnabled(game.gameInProgress);
          
-         if (move.isJump()) {
-            validMoves = board.getValidJumpsFrom(currentPlayer,move.r2,move.c2);
-            if (validMoves != null) {
-               if (currentPlayer == CheckersData.RED)
-                  helpMessage.setText("RED:  You must continue jumping.");
-               else
-                  helpMessage.setText("BLACK:  You must continue jumping.");
-               rowChosen = move.r2;  
-               colChosen = move.c2;
-               repaint();
-               return;
-            }
-         }
-         
-         if (currentPlayer == CheckersData.RED) {
-            currentPlayer = CheckersData.BLACK;
-            validMoves = board.getValidMoves(currentPlayer);
-            if (validMoves == null)
-               helpMessage.setText("BLACK has no moves.  RED wins.");
-            else if (validMoves[0].isJump())
-               helpMessage.setText("BLACK:  Make your move.  You must jump.");
-            else
-               helpMessage.setText("BLACK:  Make your move.");
-         }
-         else {
-            currentPlayer = CheckersData.RED;
-            validMoves = board.getValidMoves(currentPlayer);
-            if (validMoves == null)
-               helpMessage.setText("RED has no moves.  BLACK wins.");
-            else if (validMoves[0].isJump())
-               helpMessage.setText("RED:  Make your move.  You must jump.");
-            else
-               helpMessage.setText("RED:  Make your move.");
+         if (game.continuingJump) {
+            rowChosen = move.r2;  
+            colChosen = move.c2;
+            repaintSquares(before | highlightedSquares());
+            return;
          }
          
          // if no row is selected then the below variable is initialized with -1
          rowChosen = -1;
          
+         CheckersMove[] validMoves = game.validMoves;
          if (validMoves != null) {
             boolean sameStartSquare = true;
             for (int i = 1; i < validMoves.length; i++)
@@ -218,24 +306,58 @@ public class Checkers extends JPanel {
                colChosen = validMoves[0].c1;
             }
          }
-         repaint();
+         repaintSquares(before | highlightedSquares());
          
       } 
       
       
       /**
-       * Draw a checker board pattern in gray and lightGray.  Draw the
-       * checkers.  If a game is in progress, hi-light the legal moves.
+       * Return a mask, in CheckersData square numbering, of the squares
+       * that currently have a hi-light drawn on them.  It includes the
+       * targets of all the legal moves, which is more than is drawn, but
+       * it is only used to decide what to repaint.
        */
-      public void paintComponent(Graphics g) {
+      int highlightedSquares() {
+         int squares = 0;
+         if (game.gameInProgress) {
+            for (CheckersMove move : game.validMoves)
+               squares |= squareBit(move.r1, move.c1) | squareBit(move.r2, move.c2);
+         }
+         if (hintMove != null)
+            squares |= squareBit(hintMove.r1, hintMove.c1) | squareBit(hintMove.r2, hintMove.c2);
+         return squares;
+      }
+      
+      static int squareBit(int row, int col) {
+         return 1 << CheckersData.square(row, col);
+      }
+      
+      /**
+       * Repaint only the given squares, instead of the whole board.
+       */
+      void repaintSquares(int squares) {
+         while (squares != 0) {
+            int sq = Integer.numberOfTrailingZeros(squares);
+            squares &= squares - 1;
+            repaint(2 + CheckersData.colOf(sq)*20, 2 + CheckersData.rowOf(sq)*20, 20, 20);
+         }
+      }
+      
+      
+      /**
+       * Draw the border and the checker board pattern into an image, which
+       * is then copied to the screen on every repaint.
+       */
+      BufferedImage createBoardImage() {
+         BufferedImage image = createImage(getWidth(), getHeight(), Transparency.OPAQUE);
+         Graphics2D g = image.createGraphics();
+         g.scale(imageScaleX, imageScaleY);
          
          /* Draw a two-pixel black border around the edges of the canvas. */
          
          g.setColor(Color.black);
-         g.drawRect(0,0,getSize().width-1,getSize().height-1);
-         g.drawRect(1,1,getSize().width-3,getSize().height-3);
-         
-         /* Draw the squares of the checker board and the checkers. */
+         g.drawRect(0,0,getWidth()-1,getHeight()-1);
+         g.drawRect(1,1,getWidth()-3,getHeight()-3);
          
          for (int row = 0; row < 8; row++) {
             for (int col = 0; col < 8; col++) {
@@ -244,32 +366,98 @@ public class Checkers extends JPanel {
                else
                   g.setColor(Color.BLACK);
                g.fillRect(2 + col*20, 2 + row*20, 20, 20);
-               switch (board.pieceAt(row,col)) {
-               case CheckersData.RED:
-                  g.setColor(Color.RED);
-                  g.fillOval(4 + col*20, 4 + row*20, 15, 15);
-                  break;
-               case CheckersData.BLACK:
-                  g.setColor(Color.BLACK);
-                  g.fillOval(4 + col*20, 4 + row*20, 15, 15);
-                  break;
-               case CheckersData.R_KING:
-                  g.setColor(Color.RED);
-                  g.fillOval(4 + col*20, 4 + row*20, 15, 15);
-                  g.setColor(Color.WHITE);
-                  g.drawString("K", 7 + col*20, 16 + row*20);
-                  break;
-               case CheckersData.B_KING:
-                  g.setColor(Color.BLACK);
-                  g.fillOval(4 + col*20, 4 + row*20, 15, 15);
-                  g.setColor(Color.WHITE);
-                  g.drawString("K", 7 + col*20, 16 + row*20);
-                  break;
-               }
             }
          }
+         g.dispose();
+         return image;
+      }
+      
+      /**
+       * Draw one kind of piece into a 20 by 20 image with a transparent
+       * background, the size of a square.
+       */
+      BufferedImage createPieceImage(int piece) {
+         BufferedImage image = createImage(20, 20, Transparency.TRANSLUCENT);
+         Graphics2D g = image.createGraphics();
+         g.scale(imageScaleX, imageScaleY);
+         g.setFont(getFont());
+         boolean red = piece == CheckersData.RED || piece == CheckersData.R_KING;
+         g.setColor(red ? Color.RED : Color.BLACK);
+         g.fillOval(2, 2, 15, 15);
+         if (piece == CheckersData.R_KING || piece == CheckersData.B_KING) {
+            g.setColor(Color.WHITE);
+            g.drawString("K", 5, 14);
+         }
+         g.dispose();
+         return image;
+      }
+      
+      /**
+       * An image in the format of the screen if the board is showing,
+       * which is the fastest to copy.  The width and height are in units,
+       * and the image has as many device pixels as they cover at the
+       * current scale.
+       */
+      BufferedImage createImage(int width, int height, int transparency) {
+         width = pixels(width, imageScaleX);
+         height = pixels(height, imageScaleY);
+         GraphicsConfiguration config = getGraphicsConfiguration();
+         if (config != null)
+            return config.createCompatibleImage(width, height, transparency);
+         return new BufferedImage(width, height, transparency == Transparency.OPAQUE
+               ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+      }
+      
+      static int pixels(int units, double scale) {
+         return (int) Math.ceil(units * scale);
+      }
+      
+      /**
+       * Drop the cached images if the screen's scale is not the one they
+       * were drawn at, as on a HiDPI display or when the window moves to a
+       * screen with another scale.
+       */
+      void checkImageScale(Graphics g) {
+         java.awt.geom.AffineTransform transform = ((Graphics2D) g).getTransform();
+         if (transform.getScaleX() != imageScaleX || transform.getScaleY() != imageScaleY) {
+            imageScaleX = transform.getScaleX();
+            imageScaleY = transform.getScaleY();
+            boardImage = null;
+            java.util.Arrays.fill(pieceImages, null);
+         }
+      }
+      
+      
+      /**
+       * Copy the checker board pattern and the checkers from the cached
+       * images.  Only the squares inside the clip are drawn, so repainting
+       * a few squares costs only those squares.  If a game is in progress,
+       * hi-light the legal moves.
+       */
+      public void paintComponent(Graphics g) {
          
-         if (gameInProgress) {
+         checkImageScale(g);
+         if (boardImage == null || boardImage.getWidth() != pixels(getWidth(), imageScaleX)
+               || boardImage.getHeight() != pixels(getHeight(), imageScaleY))
+            boardImage = createBoardImage();
+         g.drawImage(boardImage, 0, 0, getWidth(), getHeight(), null);
+         
+         /* Draw the checkers. */
+         
+         for (int sq = 0; sq < 32; sq++) {
+            int row = CheckersData.rowOf(sq);
+            int col = CheckersData.colOf(sq);
+            int piece = board.pieceAt(row,col);
+            if (piece != CheckersData.EMPTY && g.hitClip(2 + col*20, 2 + row*20, 20, 20)) {
+               if (pieceImages[piece] == null)
+                  pieceImages[piece] = createPieceImage(piece);
+               g.drawImage(pieceImages[piece], 2 + col*20, 2 + row*20, 20, 20, null);
+            }
+         }
+         
+         if (game.gameInProgress) {
+            
+            CheckersMove[] validMoves = game.validMoves;
                
             g.setColor(Color.cyan);
             // cyan border to indicate the pieces that can be moved
@@ -290,6 +478,14 @@ public class Checkers extends JPanel {
                   }
                }
             }
+            
+            if (hintMove != null) {
+               // magenta border around the two squares of the suggested move
+               g.setColor(Color.magenta);
+               g.drawRect(2 + hintMove.c1*20, 2 + hintMove.r1*20, 19, 19);
+               g.drawRect(2 + hintMove.c2*20, 2 + hintMove.r2*20, 19, 19);
+               g.drawRect(3 + hintMove.c2*20, 3 + hintMove.r2*20, 17, 17);
+            }
          }
       } 
       
@@ -301,7 +497,7 @@ public class Checkers extends JPanel {
       public void mousePressed(MouseEvent e) {
             int col = (e.getX() - 2) / 20;
             int row = (e.getY() - 2) / 20;
-            if (col >= 0 && col < 8 && row >= 0 && row < 8)
+            if (game.gameInProgress && col >= 0 && col < 8 && row >= 0 && row < 8)
                selectSquare(row,col);
       }
       
@@ -1,6 +1,7 @@
 package checkers;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * This class holds the data associated with the checkers board
@@ -17,6 +18,92 @@ public class CheckersData {
     	
     int[][] checkerBoard;  
     
+    /* Bitboard view of the same position.  The 32 playable squares
+       (row % 2 == col % 2) are numbered 0..31 row by row, so that
+       square = row*4 + col/2, and each mask holds one bit per square. */
+    
+    int redMask;     // squares holding a red piece (man or king)
+    int blackMask;   // squares holding a black piece (man or king)
+    int kingMask;    // squares holding a king of either color
+    
+    boolean bitboardMode = true;  // generate moves from the masks instead of scanning checkerBoard
+    
+    /* Incremental move cache, kept only while cacheMode is on (see
+       setMoveCache()).  For each square holding a piece, pieceSteps has
+       the squares it can step to and pieceJumps the squares it can land on
+       by jumping; the jumper and stepper masks hold the pieces of each
+       color that have at least one.  A move only changes its from, to and
+       jumped squares, and a piece's moves only depend on the squares one
+       and two steps away along its diagonals, so only the pieces within
+       that distance of a changed square are recomputed. */
+    
+    boolean cacheMode;
+    int[] pieceSteps = new int[32];
+    int[] pieceJumps = new int[32];
+    int redJumpers, blackJumpers;
+    int redSteppers, blackSteppers;
+    
+    static final int RED_CROWN_ROW = 0x0000000F;     // row 0, where red men are crowned
+    static final int BLACK_CROWN_ROW = 0xF0000000;   // row 7, where black men are crowned
+    
+    static final int[] NEAR = new int[4 * 32];    // indexed by direction*32 + square: the bit one step away, or 0
+    static final int[] FAR = new int[4 * 32];     // the bit two steps away, or 0
+    
+    /* Undo records for makeMove()/unmakeMove().  Each record holds the packed
+       move in bits 0-15, the captured piece in bits 16-18 and a flag in
+       bit 19 that is set if the move crowned a king. */
+    
+    int[] undoStack = new int[32];     // grows as needed; kept small since every game has one
+    int undoCount;
+    
+    static final int PROMOTED_FLAG = 1 << 19;
+    
+    long[] keyStack = new long[32];   // zobristKey before each move on the undo stack
+    
+    /* Undo records for makeTurn()/unmakeTurn(), two longs for each turn:
+       the turn itself and the mask of the captured pieces that were kings. */
+    
+    long[] turnStack = new long[32];
+    int turnCount;
+    
+    /* Zobrist hashing.  zobristKey is the XOR of one random number for each
+       (piece, square) pair on the board and is kept up to date by every
+       change to the board.  hashKey() adds the side to move.  The numbers
+       come from a fixed seed so that keys are the same in every run. */
+    
+    long zobristKey;
+    
+    static final long[][] ZOBRIST = new long[5][32];   // indexed by piece and square
+    static final long BLACK_TO_MOVE;
+    
+    static {
+       java.util.Random random = new java.util.Random(0x5EED_C4EC_CE25L);
+       for (int piece = RED; piece <= B_KING; piece++)
+          for (int sq = 0; sq < 32; sq++)
+             ZOBRIST[piece][sq] = random.nextLong();
+       BLACK_TO_MOVE = random.nextLong();
+    }
+    
+    static final int UP_LEFT = 0;      // towards row 0, the direction RED moves in
+    static final int UP_RIGHT = 1;
+    static final int DOWN_LEFT = 2;    // towards row 7, the direction BLACK moves in
+    static final int DOWN_RIGHT = 3;
+    
+    static final int MAX_MOVES = 64;   // big enough for any move list, used to size move buffers
+    
+    static final int EVEN_ROWS = 0x0F0F0F0F;
+    static final int ODD_ROWS = 0xF0F0F0F0;
+    static final int LEFT_EDGE = 0x11111111;    // column 0 on even rows, column 1 on odd rows
+    static final int RIGHT_EDGE = 0x88888888;   // column 6 on even rows, column 7 on odd rows
+    
+    static {
+       for (int sq = 0; sq < 32; sq++)
+          for (int dir = UP_LEFT; dir <= DOWN_RIGHT; dir++) {
+             NEAR[dir * 32 + sq] = shift(1 << sq, dir);
+             FAR[dir * 32 + sq] = shift(shift(1 << sq, dir), dir);
+          }
+    }
+    
     
     /**
      * This constructor creates the board and sets all the pieces initially
@@ -27,6 +114,24 @@ public class CheckersData {
     }
     
     
+    /**
+     * Create a copy of another board, so that it can be changed without
+     * affecting the original.  The undo history is not copied, and neither
+     * is the move cache, which a copy made for searching would only pay
+     * to keep up to date.
+     */
+    CheckersData(CheckersData other) {
+       checkerBoard = new int[8][8];
+       for (int row = 0; row < 8; row++)
+          checkerBoard[row] = other.checkerBoard[row].clone();
+       redMask = other.redMask;
+       blackMask = other.blackMask;
+       kingMask = other.kingMask;
+       zobristKey = other.zobristKey;
+       bitboardMode = other.bitboardMode;
+    }
+    
+    
     /**
      * This method sets up the game initially by placing the relevant pieces in its position
      * the pieces are only placed at position where row % 2 == column % 2
@@ -49,9 +154,260 @@ public class CheckersData {
              }
           }
        }
+       syncBitboards();
+       undoCount = 0;
+       turnCount = 0;
     }  
     
     
+    /**
+     * Set up an arbitrary position.  The string has one character for each
+     * of the 32 playable squares, in square order: 'r' and 'b' for men,
+     * 'R' and 'B' for kings and '.' for an empty square.
+     */
+    void setUpPosition(String squares) {
+       if (squares.length() != 32)
+          throw new IllegalArgumentException("A position needs 32 squares, not " + squares.length());
+       for (int row = 0; row < 8; row++)
+          for (int col = 0; col < 8; col++)
+             checkerBoard[row][col] = EMPTY;
+       for (int sq = 0; sq < 32; sq++) {
+          int piece;
+          switch (squares.charAt(sq)) {
+          case 'r': piece = RED; break;
+          case 'R': piece = R_KING; break;
+          case 'b': piece = BLACK; break;
+          case 'B': piece = B_KING; break;
+          case '.': piece = EMPTY; break;
+          default:
+             throw new IllegalArgumentException("Unknown piece '" + squares.charAt(sq) + "'");
+          }
+          checkerBoard[rowOf(sq)][colOf(sq)] = piece;
+       }
+       syncBitboards();
+       undoCount = 0;
+       turnCount = 0;
+    }
+    
+    
+    /**
+     * Set up the position given by a red, a black and a king mask.
+     */
+    void setUpPosition(int red, int black, int kings) {
+       for (int sq = 0; sq < 32; sq++) {
+          int bit = 1 << sq;
+          int piece = EMPTY;
+          if ((red & bit) != 0)
+             piece = (kings & bit) != 0 ? R_KING : RED;
+          else if ((black & bit) != 0)
+             piece = (kings & bit) != 0 ? B_KING : BLACK;
+          checkerBoard[rowOf(sq)][colOf(sq)] = piece;
+       }
+       syncBitboards();
+       undoCount = 0;
+       turnCount = 0;
+    }
+    
+    
+    /**
+     * The position in the format read by setUpPosition().
+     */
+    String positionString() {
+       StringBuilder squares = new StringBuilder(32);
+       for (int sq = 0; sq < 32; sq++)
+          squares.append(".rRbB".charAt(checkerBoard[rowOf(sq)][colOf(sq)]));
+       return squares.toString();
+    }
+    
+    
+    /**
+     * Rebuild the red, black and king masks and the Zobrist key from checkerBoard.
+     */
+    void syncBitboards() {
+       redMask = 0;
+       blackMask = 0;
+       kingMask = 0;
+       zobristKey = 0;
+       for (int sq = 0; sq < 32; sq++) {
+          int piece = checkerBoard[rowOf(sq)][colOf(sq)];
+          if (piece != EMPTY)
+             zobristKey ^= ZOBRIST[piece][sq];
+          if (piece == RED || piece == R_KING)
+             redMask |= 1 << sq;
+          else if (piece == BLACK || piece == B_KING)
+             blackMask |= 1 << sq;
+          if (piece == R_KING || piece == B_KING)
+             kingMask |= 1 << sq;
+       }
+       if (cacheMode)
+          updateMoveCache(-1);
+    }
+    
+    
+    /**
+     * Switch the incremental move cache on or off.  While it is on, every
+     * change to the board also updates the cache, and generateMoves(),
+     * generateJumpsFrom(), getValidMoves() and getValidJumpsFrom() read
+     * their moves from it instead of working them out again.  Keeping the
+     * cache up costs more on each change than generateMovesFromMasks()
+     * takes to find the moves afresh, so it is off unless asked for, as by
+     * Perft's cached backend and RulesBenchmark.
+     */
+    void setMoveCache(boolean on) {
+       cacheMode = on;
+       if (on)
+          updateMoveCache(-1);
+    }
+    
+    
+    /**
+     * Recompute the cached moves of every piece that a change to the given
+     * squares can affect.  Entries for empty squares are left as they are;
+     * they are never read, since only squares in the masks are looked at.
+     */
+    private void updateMoveCache(int changed) {
+       int occupied = redMask | blackMask;
+       int region = 0;
+       if (changed == -1)
+          region = -1;
+       else
+          while (changed != 0) {
+             // a piece two steps away can only be affected if it might jump the piece in between
+             int sq = Integer.numberOfTrailingZeros(changed);
+             changed &= changed - 1;
+             region |= 1 << sq;
+             for (int dir = UP_LEFT; dir <= DOWN_RIGHT; dir++) {
+                int near = NEAR[dir * 32 + sq];
+                region |= near;
+                if ((near & occupied) != 0)
+                   region |= FAR[dir * 32 + sq];
+             }
+          }
+       int empty = ~occupied;
+       redJumpers &= ~region;
+       blackJumpers &= ~region;
+       redSteppers &= ~region;
+       blackSteppers &= ~region;
+       for (region &= occupied; region != 0; region &= region - 1) {
+          int sq = Integer.numberOfTrailingZeros(region);
+          int bit = 1 << sq;
+          boolean red = (redMask & bit) != 0;
+          int opponent = red ? blackMask : redMask;
+          boolean king = (kingMask & bit) != 0;
+          int first = red || king ? UP_LEFT : DOWN_LEFT;
+          int last = red && !king ? UP_RIGHT : DOWN_RIGHT;
+          int steps = 0;
+          int jumps = 0;
+          for (int dir = first; dir <= last; dir++) {
+             int near = NEAR[dir * 32 + sq];
+             if ((near & empty) != 0)
+                steps |= near;
+             else if ((near & opponent) != 0)
+                jumps |= FAR[dir * 32 + sq] & empty;
+          }
+          pieceSteps[sq] = steps;
+          pieceJumps[sq] = jumps;
+          if (red) {
+             if (steps != 0)
+                redSteppers |= bit;
+             if (jumps != 0)
+                redJumpers |= bit;
+          }
+          else {
+             if (steps != 0)
+                blackSteppers |= bit;
+             if (jumps != 0)
+                blackJumpers |= bit;
+          }
+       }
+    }
+    
+    
+    /**
+     * True if player has a jump, and so must jump.  With the move cache
+     * on this is a single lookup.
+     */
+    boolean mustJump(int player) {
+       if (cacheMode)
+          return (player == RED ? redJumpers : blackJumpers) != 0;
+       int opponent = player == RED ? blackMask : redMask;
+       int empty = ~(redMask | blackMask);
+       for (int dir = UP_LEFT; dir <= DOWN_RIGHT; dir++) {
+          int movers = dir <= UP_RIGHT ? upMovers(player) : downMovers(player);
+          if ((shift(shift(movers, dir) & opponent, dir) & empty) != 0)
+             return true;
+       }
+       return false;
+    }
+    
+    
+    /**
+     * The hash key of the position with the given player to move.
+     */
+    long hashKey(int player) {
+       return player == BLACK ? zobristKey ^ BLACK_TO_MOVE : zobristKey;
+    }
+    
+    
+    /**
+     * The player who moves after the given player.
+     */
+    static int opponent(int player) {
+       return player == RED ? BLACK : RED;
+    }
+    
+    
+    /**
+     * Square numbering used by the masks: the index of the playable square
+     * at (row, col), and the row and column of a square index.
+     */
+    static int square(int row, int col) {
+       return row*4 + col/2;
+    }
+    
+    static int rowOf(int sq) {
+       return sq >> 2;
+    }
+    
+    static int colOf(int sq) {
+       return ((sq & 3) << 1) | ((sq >> 2) & 1);
+    }
+    
+    
+    /**
+     * Move every square in mask one step diagonally in the given direction.
+     * Squares that would leave the board are dropped.  The step size depends
+     * on the parity of the row, which is why even and odd rows are shifted
+     * separately.
+     */
+    static int shift(int mask, int direction) {
+       switch (direction) {
+       case UP_LEFT:
+          return ((mask & EVEN_ROWS & ~LEFT_EDGE) >>> 5) | ((mask & ODD_ROWS) >>> 4);
+       case UP_RIGHT:
+          return ((mask & EVEN_ROWS) >>> 4) | ((mask & ODD_ROWS & ~RIGHT_EDGE) >>> 3);
+       case DOWN_LEFT:
+          return ((mask & EVEN_ROWS & ~LEFT_EDGE) << 3) | ((mask & ODD_ROWS) << 4);
+       default:
+          return ((mask & EVEN_ROWS) << 4) | ((mask & ODD_ROWS & ~RIGHT_EDGE) << 5);
+       }
+    }
+    
+    
+    /**
+     * The masks of the pieces belonging to player that may step towards
+     * row 0 (up) and towards row 7 (down).  Men only move forward, kings
+     * move both ways.
+     */
+    int upMovers(int player) {
+       return player == RED ? redMask : blackMask & kingMask;
+    }
+    
+    int downMovers(int player) {
+       return player == BLACK ? blackMask : redMask & kingMask;
+    }
+    
+    
     /**
      * This method returns the data on a particular square
      * and this is specified by the row and the column
@@ -77,20 +433,159 @@ public class CheckersData {
      * piece becomes a king.
      */
     void doMove(int r1, int c1, int r2, int c2) {
+       int fromBit = 1 << square(r1, c1);
+       int toBit = 1 << square(r2, c2);
+       int piece = checkerBoard[r1][c1];
+       zobristKey ^= ZOBRIST[piece][square(r1, c1)] ^ ZOBRIST[piece][square(r2, c2)];
        checkerBoard[r2][c2] = checkerBoard[r1][c1];
        checkerBoard[r1][c1] = EMPTY;
+       if ((redMask & fromBit) != 0)
+          redMask ^= fromBit | toBit;
+       else
+          blackMask ^= fromBit | toBit;
+       if ((kingMask & fromBit) != 0)
+          kingMask ^= fromBit | toBit;
        if (r1 - r2 == 2 || r1 - r2 == -2) {
           
           int jumpRow = (r1 + r2) / 2;  
           int jumpCol = (c1 + c2) / 2;  
+          zobristKey ^= ZOBRIST[checkerBoard[jumpRow][jumpCol]][square(jumpRow, jumpCol)];
           checkerBoard[jumpRow][jumpCol] = EMPTY;
+          int jumpBit = 1 << square(jumpRow, jumpCol);
+          redMask &= ~jumpBit;
+          blackMask &= ~jumpBit;
+          kingMask &= ~jumpBit;
        }
-       if (r2 == 0 && checkerBoard[r2][c2] == RED)
+       if (r2 == 0 && checkerBoard[r2][c2] == RED) {
           checkerBoard[r2][c2] = R_KING;
-       if (r2 == 7 && checkerBoard[r2][c2] == BLACK)
+          kingMask |= toBit;
+          zobristKey ^= ZOBRIST[RED][square(r2, c2)] ^ ZOBRIST[R_KING][square(r2, c2)];
+       }
+       if (r2 == 7 && checkerBoard[r2][c2] == BLACK) {
           checkerBoard[r2][c2] = B_KING;
+          kingMask |= toBit;
+          zobristKey ^= ZOBRIST[BLACK][square(r2, c2)] ^ ZOBRIST[B_KING][square(r2, c2)];
+       }
+       if (cacheMode)
+          updateMoveCache(fromBit | toBit | (r1 - r2 == 2 || r1 - r2 == -2 ? 1 << square((r1 + r2) / 2, (c1 + c2) / 2) : 0));
+    }
+    
+    /**
+     * Make a packed move, remembering enough about it that unmakeMove()
+     * can take it back.  The effect on the board is the same as doMove():
+     * a jumped piece is removed and a piece reaching the last row is crowned.
+     */
+    void makeMove(int move) {
+       int from = CheckersMove.fromSquare(move);
+       int to = CheckersMove.toSquare(move);
+       int fromBit = 1 << from;
+       int toBit = 1 << to;
+       int r2 = rowOf(to);
+       int c2 = colOf(to);
+       int piece = checkerBoard[rowOf(from)][colOf(from)];
+       int record = move & 0xFFFF;
+       
+       if (undoCount == undoStack.length) {
+          undoStack = Arrays.copyOf(undoStack, undoCount * 2);
+          keyStack = Arrays.copyOf(keyStack, undoCount * 2);
+       }
+       keyStack[undoCount] = zobristKey;
+       
+       zobristKey ^= ZOBRIST[piece][from];
+       checkerBoard[rowOf(from)][colOf(from)] = EMPTY;
+       if (piece == RED || piece == R_KING)
+          redMask ^= fromBit | toBit;
+       else
+          blackMask ^= fromBit | toBit;
+       if ((kingMask & fromBit) != 0)
+          kingMask ^= fromBit | toBit;
+       
+       if (CheckersMove.isPackedJump(move)) {
+          int jumped = CheckersMove.jumpedSquare(move);
+          int jumpBit = 1 << jumped;
+          int captured = checkerBoard[rowOf(jumped)][colOf(jumped)];
+          record |= captured << 16;
+          zobristKey ^= ZOBRIST[captured][jumped];
+          checkerBoard[rowOf(jumped)][colOf(jumped)] = EMPTY;
+          redMask &= ~jumpBit;
+          blackMask &= ~jumpBit;
+          kingMask &= ~jumpBit;
+       }
+       
+       if (r2 == 0 && piece == RED) {
+          piece = R_KING;
+          kingMask |= toBit;
+          record |= PROMOTED_FLAG;
+       }
+       else if (r2 == 7 && piece == BLACK) {
+          piece = B_KING;
+          kingMask |= toBit;
+          record |= PROMOTED_FLAG;
+       }
+       checkerBoard[r2][c2] = piece;
+       zobristKey ^= ZOBRIST[piece][to];
+       
+       undoStack[undoCount++] = record;
+       if (cacheMode)
+          updateMoveCache(fromBit | toBit | (CheckersMove.isPackedJump(move) ? 1 << CheckersMove.jumpedSquare(move) : 0));
+    }
+    
+    void makeMove(CheckersMove move) {
+       makeMove(move.toPacked());
     }
     
+    
+    /**
+     * Take back the last move made by makeMove(): move the piece back,
+     * uncrown it if the move crowned it, and put any captured piece back.
+     */
+    void unmakeMove() {
+       int record = undoStack[--undoCount];
+       zobristKey = keyStack[undoCount];
+       int from = CheckersMove.fromSquare(record);
+       int to = CheckersMove.toSquare(record);
+       int fromBit = 1 << from;
+       int toBit = 1 << to;
+       int piece = checkerBoard[rowOf(to)][colOf(to)];
+       
+       if ((record & PROMOTED_FLAG) != 0) {
+          piece = piece == R_KING ? RED : BLACK;
+          kingMask &= ~toBit;
+       }
+       checkerBoard[rowOf(to)][colOf(to)] = EMPTY;
+       checkerBoard[rowOf(from)][colOf(from)] = piece;
+       if (piece == RED || piece == R_KING)
+          redMask ^= fromBit | toBit;
+       else
+          blackMask ^= fromBit | toBit;
+       if ((kingMask & toBit) != 0)
+          kingMask ^= fromBit | toBit;
+       
+       if (CheckersMove.isPackedJump(record)) {
+          int jumped = CheckersMove.jumpedSquare(record);
+          int jumpBit = 1 << jumped;
+          int captured = (record >>> 16) & 7;
+          checkerBoard[rowOf(jumped)][colOf(jumped)] = captured;
+          if (captured == RED || captured == R_KING)
+             redMask |= jumpBit;
+          else
+             blackMask |= jumpBit;
+          if (captured == R_KING || captured == B_KING)
+             kingMask |= jumpBit;
+       }
+       if (cacheMode)
+          updateMoveCache(fromBit | toBit | (CheckersMove.isPackedJump(record) ? 1 << CheckersMove.jumpedSquare(record) : 0));
+    }
+    
+    
+    /**
+     * True if the last move made by makeMove() crowned a king.
+     */
+    boolean lastMoveCrowned() {
+       return (undoStack[undoCount - 1] & PROMOTED_FLAG) != 0;
+    }
+    
+    
     /**
      * Return an array containing all the legal CheckersMoves
      * if there are no moves possible, null is returned
@@ -100,6 +595,9 @@ public class CheckersData {
        if (player != RED && player != BLACK)
           return null;
        
+       if (bitboardMode || cacheMode)
+          return getValidMovesFromMasks(player);
+       
        int playerKing;  
        if (player == RED)
           playerKing = R_KING;
@@ -141,6 +639,8 @@ public class CheckersData {
           }
        }
        
+       if (EngineMetrics.enabled)
+          EngineMetrics.INSTANCE.generated(moves.size(), moves.size() > 0 && moves.get(0).isJump());
        if (moves.size() == 0)
           return null;
        else {
@@ -152,6 +652,325 @@ public class CheckersData {
     } 
     
     
+    /**
+     * The bitboard version of getValidMoves().  The moves are generated
+     * in packed form by generateMoves() and then wrapped as CheckersMoves.
+     */
+    private CheckersMove[] getValidMovesFromMasks(int player) {
+       int[] buffer = new int[MAX_MOVES];
+       int count = generateMoves(player, buffer);
+       if (count == 0)
+          return null;
+       CheckersMove[] moveArray = new CheckersMove[count];
+       for (int i = 0; i < count; i++)
+          moveArray[i] = new CheckersMove(buffer[i]);
+       return moveArray;
+    }
+    
+    
+    /**
+     * Write all the legal moves for player into moves, packed as described
+     * in CheckersMove, and return how many were written.  Jumps are forced,
+     * so if any jump exists only jumps are returned.  Nothing is allocated;
+     * moves must have room for MAX_MOVES entries.
+     * 
+     * Instead of testing every square, all the pieces that can jump (or move)
+     * in one direction are found at once by shifting the masks, and only the
+     * resulting target squares are visited.
+     */
+    int generateMoves(int player, int[] moves) {
+       int count = cacheMode ? generateCachedMoves(player, moves) : generateMovesFromMasks(player, moves);
+       if (EngineMetrics.enabled)
+          EngineMetrics.INSTANCE.generated(count, count > 0 && CheckersMove.isPackedJump(moves[0]));
+       return count;
+    }
+    
+    private int generateMovesFromMasks(int player, int[] moves) {
+       int opponent = player == RED ? blackMask : redMask;
+       int empty = ~(redMask | blackMask);
+       int up = upMovers(player);
+       int down = downMovers(player);
+       int count = 0;
+       
+       for (int dir = UP_LEFT; dir <= DOWN_RIGHT; dir++) {
+          int movers = dir <= UP_RIGHT ? up : down;
+          int targets = shift(shift(movers, dir) & opponent, dir) & empty;
+          while (targets != 0) {
+             int to = Integer.numberOfTrailingZeros(targets);
+             targets &= targets - 1;
+             int jumped = shift(1 << to, 3 - dir);   // 3 - dir is the opposite direction
+             int from = shift(jumped, 3 - dir);
+             moves[count++] = CheckersMove.packJump(Integer.numberOfTrailingZeros(from),
+                   to, Integer.numberOfTrailingZeros(jumped));
+          }
+       }
+       
+       if (count == 0) {
+          for (int dir = UP_LEFT; dir <= DOWN_RIGHT; dir++) {
+             int movers = dir <= UP_RIGHT ? up : down;
+             int targets = shift(movers, dir) & empty;
+             while (targets != 0) {
+                int to = Integer.numberOfTrailingZeros(targets);
+                targets &= targets - 1;
+                int from = shift(1 << to, 3 - dir);
+                moves[count++] = CheckersMove.pack(Integer.numberOfTrailingZeros(from), to);
+             }
+          }
+       }
+       return count;
+    }
+    
+    
+    /**
+     * Write every legal turn for player into turns, packed as described in
+     * CheckersMove.packTurn(), and return how many were written.  A jump
+     * chain is one turn, from the square it starts on to the square it ends
+     * on, with the mask of the pieces it captures.  The chains are found by
+     * a depth-first walk that removes each captured piece as it goes,
+     * without changing the board.  As in doMove(), a man that reaches the
+     * last row is crowned, and if that happens in the middle of a chain it
+     * goes on jumping as a king.  Chains that start and end on the same
+     * squares and capture the same pieces lead to the same position, so
+     * only one of them is kept.  Jumps are forced, so if there is a chain
+     * only chains are returned.  turns must have room for MAX_MOVES entries.
+     */
+    int generateTurns(int player, long[] turns) {
+       return generateTurns(redMask, blackMask, kingMask, player, turns);
+    }
+    
+    
+    /**
+     * generateTurns() for the position given by a red, a black and a king
+     * mask.  This reads nothing but its arguments, so any thread may call it.
+     */
+    static int generateTurns(int redMask, int blackMask, int kingMask, int player, long[] turns) {
+       int count = findTurns(redMask, blackMask, kingMask, player, turns);
+       if (EngineMetrics.enabled)
+          EngineMetrics.INSTANCE.generatedTurns(count, count > 0 && CheckersMove.isCaptureTurn(turns[0]));
+       return count;
+    }
+    
+    private static int findTurns(int redMask, int blackMask, int kingMask, int player, long[] turns) {
+       int own = player == RED ? redMask : blackMask;
+       int opponent = player == RED ? blackMask : redMask;
+       int empty = ~(redMask | blackMask);
+       int count = 0;
+       for (int pieces = own; pieces != 0; pieces &= pieces - 1) {
+          int from = Integer.numberOfTrailingZeros(pieces);
+          count = walkCaptures(player, from, from, (kingMask & (1 << from)) != 0, false, opponent, empty, 0,
+                turns, count);
+       }
+       if (count > 0)
+          return count;
+       
+       int crownRow = player == RED ? RED_CROWN_ROW : BLACK_CROWN_ROW;
+       for (int pieces = own; pieces != 0; pieces &= pieces - 1) {
+          int from = Integer.numberOfTrailingZeros(pieces);
+          boolean king = (kingMask & (1 << from)) != 0;
+          int first = player == RED || king ? UP_LEFT : DOWN_LEFT;
+          int last = player == RED && !king ? UP_RIGHT : DOWN_RIGHT;
+          for (int dir = first; dir <= last; dir++) {
+             int to = NEAR[dir * 32 + from] & empty;
+             if (to != 0)
+                turns[count++] = CheckersMove.packTurn(from, Integer.numberOfTrailingZeros(to), 0,
+                      !king && (to & crownRow) != 0);
+          }
+       }
+       return count;
+    }
+    
+    
+    /**
+     * One step of the walk in generateTurns(): the piece that started on
+     * from is on sq, has captured the pieces in captured, and may jump the
+     * pieces in opponent onto the squares in empty.  Adds the turns that
+     * end below this point and returns the new count.
+     */
+    private static int walkCaptures(int player, int from, int sq, boolean king, boolean crowned, int opponent, int empty,
+          int captured, long[] turns, int count) {
+       boolean jumped = false;
+       int first = player == RED || king ? UP_LEFT : DOWN_LEFT;
+       int last = player == RED && !king ? UP_RIGHT : DOWN_RIGHT;
+       for (int dir = first; dir <= last; dir++) {
+          int over = NEAR[dir * 32 + sq] & opponent;
+          int land = FAR[dir * 32 + sq] & empty;
+          if (over == 0 || land == 0)
+             continue;
+          jumped = true;
+          boolean crowns = !king && (land & (player == RED ? RED_CROWN_ROW : BLACK_CROWN_ROW)) != 0;
+          count = walkCaptures(player, from, Integer.numberOfTrailingZeros(land), king || crowns, crowned || crowns,
+                opponent & ~over, (empty | (1 << sq) | over) & ~land, captured | over, turns, count);
+       }
+       if (!jumped && captured != 0) {
+          long turn = CheckersMove.packTurn(from, sq, captured, crowned);
+          for (int i = 0; i < count; i++)
+             if (turns[i] == turn)
+                return count;
+          turns[count++] = turn;
+       }
+       return count;
+    }
+    
+    
+    /**
+     * Make a whole turn from generateTurns(), remembering enough about it
+     * that unmakeTurn() can take it back.
+     */
+    void makeTurn(long turn) {
+       int from = CheckersMove.turnFrom(turn);
+       int to = CheckersMove.turnTo(turn);
+       int captured = CheckersMove.turnCaptured(turn);
+       int fromBit = 1 << from;
+       int toBit = 1 << to;
+       int piece = checkerBoard[rowOf(from)][colOf(from)];
+       
+       if (turnCount * 2 == turnStack.length)
+          turnStack = Arrays.copyOf(turnStack, turnStack.length * 2);
+       turnStack[turnCount * 2] = turn;
+       turnStack[turnCount * 2 + 1] = captured & kingMask;
+       turnCount++;
+       
+       zobristKey ^= ZOBRIST[piece][from];
+       checkerBoard[rowOf(from)][colOf(from)] = EMPTY;
+       for (int rest = captured; rest != 0; rest &= rest - 1) {
+          int sq = Integer.numberOfTrailingZeros(rest);
+          zobristKey ^= ZOBRIST[checkerBoard[rowOf(sq)][colOf(sq)]][sq];
+          checkerBoard[rowOf(sq)][colOf(sq)] = EMPTY;
+       }
+       boolean red = piece == RED || piece == R_KING;
+       if (red) {
+          redMask = (redMask & ~fromBit) | toBit;
+          blackMask &= ~captured;
+       }
+       else {
+          blackMask = (blackMask & ~fromBit) | toBit;
+          redMask &= ~captured;
+       }
+       kingMask &= ~captured;
+       if ((kingMask & fromBit) != 0)
+          kingMask = (kingMask & ~fromBit) | toBit;
+       if (CheckersMove.turnCrowns(turn)) {
+          piece = red ? R_KING : B_KING;
+          kingMask |= toBit;
+       }
+       checkerBoard[rowOf(to)][colOf(to)] = piece;
+       zobristKey ^= ZOBRIST[piece][to];
+       if (cacheMode)
+          updateMoveCache(fromBit | toBit | captured);
+    }
+    
+    
+    /**
+     * Take back the last turn made by makeTurn().
+     */
+    void unmakeTurn() {
+       turnCount--;
+       long turn = turnStack[turnCount * 2];
+       int capturedKings = (int) turnStack[turnCount * 2 + 1];
+       int from = CheckersMove.turnFrom(turn);
+       int to = CheckersMove.turnTo(turn);
+       int captured = CheckersMove.turnCaptured(turn);
+       int fromBit = 1 << from;
+       int toBit = 1 << to;
+       int piece = checkerBoard[rowOf(to)][colOf(to)];
+       boolean red = piece == RED || piece == R_KING;
+       
+       zobristKey ^= ZOBRIST[piece][to];
+       checkerBoard[rowOf(to)][colOf(to)] = EMPTY;
+       if (CheckersMove.turnCrowns(turn)) {
+          piece = red ? RED : BLACK;
+          kingMask &= ~toBit;
+       }
+       if ((kingMask & toBit) != 0)
+          kingMask = (kingMask & ~toBit) | fromBit;
+       if (red) {
+          redMask = (redMask & ~toBit) | fromBit;
+          blackMask |= captured;
+       }
+       else {
+          blackMask = (blackMask & ~toBit) | fromBit;
+          redMask |= captured;
+       }
+       kingMask |= capturedKings;
+       int capturedMan = red ? BLACK : RED;
+       for (int rest = captured; rest != 0; rest &= rest - 1) {
+          int sq = Integer.numberOfTrailingZeros(rest);
+          int capturedPiece = (capturedKings & (1 << sq)) != 0 ? capturedMan + 1 : capturedMan;
+          checkerBoard[rowOf(sq)][colOf(sq)] = capturedPiece;
+          zobristKey ^= ZOBRIST[capturedPiece][sq];
+       }
+       checkerBoard[rowOf(from)][colOf(from)] = piece;
+       zobristKey ^= ZOBRIST[piece][from];
+       if (cacheMode)
+          updateMoveCache(fromBit | toBit | captured);
+    }
+    
+    
+    /**
+     * generateMoves() from the move cache: only the pieces in the jumper
+     * (or else stepper) mask are visited.
+     */
+    private int generateCachedMoves(int player, int[] moves) {
+       int count = 0;
+       int jumpers = player == RED ? redJumpers : blackJumpers;
+       if (jumpers != 0) {
+          for (; jumpers != 0; jumpers &= jumpers - 1) {
+             int from = Integer.numberOfTrailingZeros(jumpers);
+             for (int targets = pieceJumps[from]; targets != 0; targets &= targets - 1)
+                moves[count++] = packCachedJump(from, Integer.numberOfTrailingZeros(targets));
+          }
+          return count;
+       }
+       for (int steppers = player == RED ? redSteppers : blackSteppers; steppers != 0; steppers &= steppers - 1) {
+          int from = Integer.numberOfTrailingZeros(steppers);
+          for (int targets = pieceSteps[from]; targets != 0; targets &= targets - 1)
+             moves[count++] = CheckersMove.pack(from, Integer.numberOfTrailingZeros(targets));
+       }
+       return count;
+    }
+    
+    private static int packCachedJump(int from, int to) {
+       int jumped = square((rowOf(from) + rowOf(to)) / 2, (colOf(from) + colOf(to)) / 2);
+       return CheckersMove.packJump(from, to, jumped);
+    }
+    
+    
+    /**
+     * Packed, allocation-free version of getValidJumpsFrom(): write the jumps
+     * that the piece on square sq can make into moves and return the count.
+     */
+    int generateJumpsFrom(int player, int sq, int[] moves) {
+       int count = findJumpsFrom(player, sq, moves);
+       if (EngineMetrics.enabled)
+          EngineMetrics.INSTANCE.generated(count, true);
+       return count;
+    }
+    
+    private int findJumpsFrom(int player, int sq, int[] moves) {
+       if (cacheMode) {
+          int count = 0;
+          if (((player == RED ? redMask : blackMask) & (1 << sq)) != 0)
+             for (int targets = pieceJumps[sq]; targets != 0; targets &= targets - 1)
+                moves[count++] = packCachedJump(sq, Integer.numberOfTrailingZeros(targets));
+          return count;
+       }
+       int bit = 1 << sq;
+       int opponent = player == RED ? blackMask : redMask;
+       int empty = ~(redMask | blackMask);
+       int up = upMovers(player) & bit;
+       int down = downMovers(player) & bit;
+       int count = 0;
+       for (int dir = UP_LEFT; dir <= DOWN_RIGHT; dir++) {
+          int jumped = shift(dir <= UP_RIGHT ? up : down, dir) & opponent;
+          int to = shift(jumped, dir) & empty;
+          if (to != 0)
+             moves[count++] = CheckersMove.packJump(sq, Integer.numberOfTrailingZeros(to),
+                   Integer.numberOfTrailingZeros(jumped));
+       }
+       return count;
+    }
+    
+    
     /**
      * Return a list of the valid jumps that the specified player can
      * make starting from the specified row and column.  If no such
@@ -161,6 +980,16 @@ public class CheckersData {
     CheckersMove[] getValidJumpsFrom(int player, int row, int col) {
        if (player != RED && player != BLACK)
           return null;
+       if (cacheMode) {
+          int[] buffer = new int[4];
+          int count = generateJumpsFrom(player, square(row, col), buffer);
+          if (count == 0)
+             return null;
+          CheckersMove[] moveArray = new CheckersMove[count];
+          for (int i = 0; i < count; i++)
+             moveArray[i] = new CheckersMove(buffer[i]);
+          return moveArray;
+       }
        int playerKing; 
        if (player == RED)
           playerKing = R_KING;
@@ -177,6 +1006,8 @@ public class CheckersData {
           if (jumpPossible(player, row, col, row-1, col-1, row-2, col-2))
              moves.add(new CheckersMove(row, col, row-2, col-2));
        }
+       if (EngineMetrics.enabled)
+          EngineMetrics.INSTANCE.generated(moves.size(), true);
        if (moves.size() == 0)
           return null;
        else {
@@ -21,6 +21,120 @@ public class CheckersMove {
        c2 = col2;
     }
     
+    // Builds the view of a move produced by CheckersData.generateMoves()
+    CheckersMove(int packed) {
+       this(CheckersData.rowOf(fromSquare(packed)), CheckersData.colOf(fromSquare(packed)),
+            CheckersData.rowOf(toSquare(packed)), CheckersData.colOf(toSquare(packed)));
+    }
+    
+    // Packed form of a move, as written by the allocation-free generator:
+    // bits 0-4 hold the from square, bits 5-9 the to square (square numbers as in
+    // CheckersData.square()), and for a jump bits 10-14 hold the jumped square
+    // and bit 15 is set.
+    static final int JUMP_FLAG = 1 << 15;
+    
+    static int pack(int from, int to) {
+       return from | (to << 5);
+    }
+    
+    static int packJump(int from, int to, int jumped) {
+       return from | (to << 5) | (jumped << 10) | JUMP_FLAG;
+    }
+    
+    static int fromSquare(int packed) {
+       return packed & 31;
+    }
+    
+    static int toSquare(int packed) {
+       return (packed >>> 5) & 31;
+    }
+    
+    static int jumpedSquare(int packed) {
+       return (packed >>> 10) & 31;
+    }
+    
+    static boolean isPackedJump(int packed) {
+       return (packed & JUMP_FLAG) != 0;
+    }
+    
+    // Packed form of a whole turn, as written by CheckersData.generateTurns(): a
+    // step, or a complete jump chain as one move.  Bits 0-4 hold the from square,
+    // bits 5-9 the square the piece ends on, bit 10 is set for a capture and bit 11
+    // if the piece is crowned on the way, and bits 32-63 hold the mask of the
+    // captured pieces.
+    static final long TURN_CAPTURE = 1L << 10;
+    static final long TURN_CROWNS = 1L << 11;
+    
+    static long packTurn(int from, int to, int captured, boolean crowns) {
+       long turn = from | (to << 5) | ((long) captured << 32);
+       if (captured != 0)
+          turn |= TURN_CAPTURE;
+       if (crowns)
+          turn |= TURN_CROWNS;
+       return turn;
+    }
+    
+    static int turnFrom(long turn) {
+       return (int) turn & 31;
+    }
+    
+    static int turnTo(long turn) {
+       return (int) (turn >>> 5) & 31;
+    }
+    
+    static int turnCaptured(long turn) {
+       return (int) (turn >>> 32);
+    }
+    
+    static boolean turnCrowns(long turn) {
+       return (turn & TURN_CROWNS) != 0;
+    }
+    
+    static boolean isCaptureTurn(long turn) {
+       return (turn & TURN_CAPTURE) != 0;
+    }
+    
+    // The packed form of this move
+    int toPacked() {
+       int from = CheckersData.square(r1, c1);
+       int to = CheckersData.square(r2, c2);
+       if (isJump())
+          return packJump(from, to, CheckersData.square((r1 + r2) / 2, (c1 + c2) / 2));
+       return pack(from, to);
+    }
+    
+    // The one of moves whose packed form is packed, or null if there is none
+    static CheckersMove findPacked(CheckersMove[] moves, int packed) {
+       for (CheckersMove move : moves)
+          if (move.toPacked() == packed)
+             return move;
+       return null;
+    }
+    
+    // Written with the playable squares numbered 1 to 32 (square index + 1),
+    // as "22-18" for a move or "22x15" for a jump
+    public String toString() {
+       return (CheckersData.square(r1, c1) + 1) + (isJump() ? "x" : "-") + (CheckersData.square(r2, c2) + 1);
+    }
+    
+    // Reads a move written by toString(); returns null if the text is not a move
+    static CheckersMove parse(String text) {
+       int split = Math.max(text.indexOf('-'), text.indexOf('x'));
+       if (split < 0)
+          return null;
+       try {
+          int from = Integer.parseInt(text.substring(0, split).trim()) - 1;
+          int to = Integer.parseInt(text.substring(split + 1).trim()) - 1;
+          if (from < 0 || from > 31 || to < 0 || to > 31)
+             return null;
+          return new CheckersMove(CheckersData.rowOf(from), CheckersData.colOf(from),
+                CheckersData.rowOf(to), CheckersData.colOf(to));
+       }
+       catch (NumberFormatException e) {
+          return null;
+       }
+    }
+    
     // The isJump() method checks whether there is a jump involved
     // Normally the piece moves one row, and when it is a jump 2 rows are involved
     boolean isJump() {
@@ -0,0 +1,282 @@
+package checkers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class looks up endgame positions in the databases written by
+ * EndgameGenerator.  There is one file for each "slice", that is each
+ * combination of the number of red men, red kings, black men and black
+ * kings.  A file holds one byte for each position of its slice, and is
+ * memory-mapped when first used, so a lookup reads the byte straight from
+ * the page cache: nothing is copied onto the heap, and processes that use
+ * the same files share the same pages.  A slice found to have no file is
+ * remembered as missing, so the search does not ask the file system again
+ * on every probe; refresh() forgets that, once more files have been
+ * written.
+ *
+ * The byte is the value for the player to move: 0 for a draw, d > 0 for a
+ * win in d turns, and -d - 1 for a loss in d turns, so -1 means that the
+ * player cannot move at all.  A turn is a whole move including any jump
+ * chain.  Distances larger than the byte can hold are capped.
+ *
+ * Positions are numbered by placing the red men, then the red kings, the
+ * black men and the black kings, each group on the squares left free by
+ * the groups before it, and ranking each group's squares as a combination.
+ */
+
+public class EndgameDatabase {
+
+   static final int UNKNOWN = Integer.MIN_VALUE;   // the position is not in any database
+   static final int DRAW = 0;
+   static final int LOST = -1;                     // the player to move has no moves
+
+   static final int MAGIC = 0x434B4547;            // "CKEG"
+   static final int HEADER_SIZE = 16;
+
+   static final long[][] CHOOSE = new long[33][33];
+
+   static {
+      for (int n = 0; n <= 32; n++) {
+         CHOOSE[n][0] = 1;
+         for (int k = 1; k <= n; k++)
+            CHOOSE[n][k] = CHOOSE[n - 1][k - 1] + (k < n ? CHOOSE[n - 1][k] : 0);
+      }
+   }
+
+   static final int RED_MEN_ROW = 0x0000000F;     // row 0, where a red man would already be a king
+   static final int BLACK_MEN_ROW = 0xF0000000;   // row 7, likewise for black
+
+   private static final ByteBuffer MISSING = ByteBuffer.allocate(0);   // in slices for a slice with no file
+
+   private final File directory;
+   private final ConcurrentHashMap<Integer, ByteBuffer> slices = new ConcurrentHashMap<Integer, ByteBuffer>();
+   private int maxPieces;
+
+
+   /**
+    * Open the databases in a directory.  Files are mapped as they are needed.
+    */
+   EndgameDatabase(File directory) {
+      this.directory = directory;
+      findMaxPieces();
+   }
+
+
+   /**
+    * Look again for files written since the databases were opened, or
+    * since the last refresh.  Call it between searches, not during one.
+    */
+   void refresh() {
+      slices.values().removeIf(slice -> slice == MISSING);
+      findMaxPieces();
+   }
+
+
+   private void findMaxPieces() {
+      String[] names = directory.list();
+      if (names != null)
+         for (String name : names) {
+            int[] counts = countsOf(name);
+            if (counts != null)
+               maxPieces = Math.max(maxPieces, counts[0] + counts[1] + counts[2] + counts[3]);
+         }
+   }
+
+
+   /**
+    * The largest number of pieces that has a database in the directory.
+    */
+   int maxPieces() {
+      return maxPieces;
+   }
+
+
+   /**
+    * The value of the position for player, or UNKNOWN if it has more
+    * pieces than the databases cover.
+    */
+   int probe(CheckersData data, int player) {
+      int red = data.redMask;
+      int black = data.blackMask;
+      int own = player == CheckersData.RED ? red : black;
+      if (own == 0)
+         return LOST;
+      if (Integer.bitCount(red | black) > maxPieces || (red == 0 || black == 0))
+         return UNKNOWN;
+      int kings = data.kingMask;
+      int rm = Integer.bitCount(red & ~kings);
+      int rk = Integer.bitCount(red & kings);
+      int bm = Integer.bitCount(black & ~kings);
+      int bk = Integer.bitCount(black & kings);
+      ByteBuffer slice = slice(rm, rk, bm, bk);
+      if (slice == MISSING)
+         return UNKNOWN;
+      return slice.get(HEADER_SIZE + (int) index(red, black, kings, player));
+   }
+
+
+   /**
+    * The stored value of a position of a given slice, or UNKNOWN if that
+    * slice has no file.
+    */
+   int probe(int rm, int rk, int bm, int bk, long index) {
+      ByteBuffer slice = slice(rm, rk, bm, bk);
+      if (slice == MISSING)
+         return UNKNOWN;
+      return slice.get(HEADER_SIZE + (int) index);
+   }
+
+
+   /**
+    * The mapped file of a slice, or MISSING if it has none.
+    */
+   private ByteBuffer slice(int rm, int rk, int bm, int bk) {
+      Integer key = rm | (rk << 4) | (bm << 8) | (bk << 12);
+      ByteBuffer slice = slices.get(key);
+      if (slice == null)
+         slice = slices.computeIfAbsent(key, k -> map(new File(directory, fileName(rm, rk, bm, bk))));
+      return slice;
+   }
+
+
+   private static ByteBuffer map(File file) {
+      if (!file.exists())
+         return MISSING;
+      try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+         ByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+         if (buffer.getInt(0) != MAGIC)
+            throw new IllegalStateException(file + " is not an endgame database");
+         return buffer;
+      }
+      catch (IOException e) {
+         throw new IllegalStateException("Cannot read " + file, e);
+      }
+   }
+
+
+   static String fileName(int rm, int rk, int bm, int bk) {
+      return "endgame-" + rm + "-" + rk + "-" + bm + "-" + bk + ".db";
+   }
+
+
+   /**
+    * The piece counts in a database file name, or null if it is not one.
+    */
+   static int[] countsOf(String name) {
+      if (!name.startsWith("endgame-") || !name.endsWith(".db"))
+         return null;
+      String[] parts = name.substring(8, name.length() - 3).split("-");
+      if (parts.length != 4)
+         return null;
+      int[] counts = new int[4];
+      try {
+         for (int i = 0; i < 4; i++)
+            counts[i] = Integer.parseInt(parts[i]);
+      }
+      catch (NumberFormatException e) {
+         return null;
+      }
+      return counts;
+   }
+
+
+   /**
+    * The number of positions in a slice, with either player to move.
+    */
+   static long sliceSize(int rm, int rk, int bm, int bk) {
+      return CHOOSE[32][rm] * CHOOSE[32 - rm][rk] * CHOOSE[32 - rm - rk][bm]
+            * CHOOSE[32 - rm - rk - bm][bk] * 2;
+   }
+
+
+   /**
+    * The index of a position within its slice.
+    */
+   static long index(int red, int black, int kings, int player) {
+      int rmMask = red & ~kings;
+      int rkMask = red & kings;
+      int bmMask = black & ~kings;
+      int bkMask = black & kings;
+      int rm = Integer.bitCount(rmMask);
+      int rk = Integer.bitCount(rkMask);
+      int bm = Integer.bitCount(bmMask);
+      int bk = Integer.bitCount(bkMask);
+      long index = rank(rmMask, 0);
+      index = index * CHOOSE[32 - rm][rk] + rank(rkMask, rmMask);
+      index = index * CHOOSE[32 - rm - rk][bm] + rank(bmMask, red);
+      index = index * CHOOSE[32 - rm - rk - bm][bk] + rank(bkMask, red | bmMask);
+      return index * 2 + (player == CheckersData.BLACK ? 1 : 0);
+   }
+
+
+   /**
+    * Turn an index back into a position, returned as { red, black, kings,
+    * player }.  Returns null for an index that does not describe a real
+    * position, because a man stands on the row where it would be crowned.
+    */
+   static int[] position(int rm, int rk, int bm, int bk, long index) {
+      int player = (index & 1) == 0 ? CheckersData.RED : CheckersData.BLACK;
+      index >>= 1;
+      long bkSize = CHOOSE[32 - rm - rk - bm][bk];
+      long bmSize = CHOOSE[32 - rm - rk][bm];
+      long rkSize = CHOOSE[32 - rm][rk];
+      int rmMask = unrank(index / (bkSize * bmSize * rkSize), rm, 0);
+      int rkMask = unrank(index / (bkSize * bmSize) % rkSize, rk, rmMask);
+      int red = rmMask | rkMask;
+      int bmMask = unrank(index / bkSize % bmSize, bm, red);
+      int bkMask = unrank(index % bkSize, bk, red | bmMask);
+      if ((rmMask & RED_MEN_ROW) != 0 || (bmMask & BLACK_MEN_ROW) != 0)
+         return null;
+      return new int[] { red, bmMask | bkMask, rkMask | bkMask, player };
+   }
+
+
+   /**
+    * The rank of a set of squares as a combination of the squares that
+    * are not taken.  Each square is first renumbered to skip taken squares.
+    */
+   static long rank(int squares, int taken) {
+      long rank = 0;
+      int i = 0;
+      while (squares != 0) {
+         int sq = Integer.numberOfTrailingZeros(squares);
+         squares &= squares - 1;
+         i++;
+         rank += CHOOSE[sq - Integer.bitCount(taken & ((1 << sq) - 1))][i];
+      }
+      return rank;
+   }
+
+
+   /**
+    * The set of count squares, avoiding taken, with the given rank.
+    */
+   static int unrank(long rank, int count, int taken) {
+      int squares = 0;
+      int c = 31 - Integer.bitCount(taken);
+      for (int i = count; i >= 1; i--) {
+         while (CHOOSE[c][i] > rank)
+            c--;
+         rank -= CHOOSE[c][i];
+         squares |= 1 << freeSquare(c, taken);
+         c--;
+      }
+      return squares;
+   }
+
+
+   /**
+    * The square that has number n when taken squares are skipped.
+    */
+   private static int freeSquare(int n, int taken) {
+      for (int sq = 0; sq < 32; sq++)
+         if ((taken & (1 << sq)) == 0 && n-- == 0)
+            return sq;
+      throw new IllegalArgumentException("No free square " + n);
+   }
+}
@@ -0,0 +1,246 @@
+package checkers;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+/**
+ * This class builds the endgame databases read by EndgameDatabase, for all
+ * positions with up to a given number of pieces.
+ *
+ * Each slice is solved by repeated passes over its positions.  A position
+ * with no moves is lost.  A position is won if some move leads to a
+ * position lost for the opponent, and lost if every move leads to one won
+ * for the opponent.  Each pass only looks at the values found by earlier
+ * passes, and passes are repeated until nothing changes; what is left over
+ * is drawn.  A win is first found through any losing move, often a long
+ * loss in a smaller slice, so decided positions are looked at again in
+ * later passes, which shorten wins and losses as shorter ones are found,
+ * until every distance is exact.  Moves are generated by the same rules as the game, through
+ * generateTurns(), which gives each jump chain as one move.
+ *
+ * A capture leads to a slice with fewer pieces, and crowning to a slice
+ * with one man fewer, so slices are solved in order of total pieces and
+ * then of men.  Slices with the same totals do not depend on each other
+ * and are solved in parallel, and so are the positions within a pass.
+ */
+
+public class EndgameGenerator {
+
+   static final int MAX_DISTANCE = 126;    // longer wins and losses are stored as this
+
+   private static final int CHUNK = 1 << 14;   // positions handed to a thread at a time
+
+   private final File directory;
+   private final EndgameDatabase database;
+
+   private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+
+
+   EndgameGenerator(File directory) {
+      this.directory = directory;
+      directory.mkdirs();
+      database = new EndgameDatabase(directory);
+   }
+
+
+   /**
+    * Build every slice with at least one piece of each color and at most
+    * maxPieces pieces, skipping files that already exist.
+    */
+   void generate(int maxPieces) {
+      for (int total = 2; total <= maxPieces; total++) {
+         for (int men = 0; men <= total; men++) {
+            List<int[]> group = new ArrayList<int[]>();
+            for (int rm = 0; rm <= men; rm++)
+               for (int red = Math.max(rm, 1); red < total; red++) {
+                  int bm = men - rm;
+                  int black = total - red;
+                  if (bm <= black)
+                     group.add(new int[] { rm, red - rm, bm, black - bm });
+               }
+            group.parallelStream().forEach(counts -> {
+               File file = new File(directory, EndgameDatabase.fileName(counts[0], counts[1], counts[2], counts[3]));
+               if (!file.exists())
+                  solve(counts, file);
+            });
+            database.refresh();   // the slices just written are probed by the groups that follow
+         }
+      }
+   }
+
+
+   /**
+    * Solve one slice and write it to its file.
+    */
+   private void solve(int[] counts, File file) {
+      long start = System.currentTimeMillis();
+      long size = EndgameDatabase.sliceSize(counts[0], counts[1], counts[2], counts[3]);
+      if (size > Integer.MAX_VALUE - EndgameDatabase.HEADER_SIZE)
+         throw new IllegalArgumentException("Slice " + file.getName() + " is too big for one file");
+      byte[] values = new byte[(int) size];
+      int chunks = (int) ((size + CHUNK - 1) / CHUNK);
+      int passes = 0;
+      AtomicBoolean changed = new AtomicBoolean(true);
+
+      while (changed.get()) {
+         changed.set(false);
+         byte[] previous = values;
+         byte[] next = values.clone();
+         IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            Worker worker = workers.get();
+            int end = (int) Math.min(size, (long) (chunk + 1) * CHUNK);
+            for (int i = chunk * CHUNK; i < end; i++) {
+               int old = previous[i];
+               if (old == 1 || old == EndgameDatabase.LOST)
+                  continue;   // cannot get any shorter
+               int value = worker.evaluate(counts, i, previous);
+               if (value != 0 && value != old) {
+                  next[i] = (byte) value;
+                  changed.set(true);
+               }
+            }
+         });
+         values = next;
+         passes++;
+      }
+
+      write(counts, values, file);
+      System.out.printf("%-24s %,12d positions  %4d passes  %8d ms%n", file.getName(), size, passes,
+            System.currentTimeMillis() - start);
+   }
+
+
+   private void write(int[] counts, byte[] values, File file) {
+      File temp = new File(file.getPath() + ".tmp");
+      try (FileOutputStream out = new FileOutputStream(temp)) {
+         FileChannel channel = out.getChannel();
+         ByteBuffer header = ByteBuffer.allocate(EndgameDatabase.HEADER_SIZE);
+         header.putInt(EndgameDatabase.MAGIC);
+         for (int i = 0; i < 4; i++)
+            header.put((byte) counts[i]);
+         header.position(EndgameDatabase.HEADER_SIZE);
+         header.flip();
+         channel.write(header);
+         ByteBuffer body = ByteBuffer.wrap(values);
+         while (body.hasRemaining())
+            channel.write(body);
+      }
+      catch (IOException e) {
+         throw new IllegalStateException("Cannot write " + file, e);
+      }
+      if (!temp.renameTo(file))
+         throw new IllegalStateException("Cannot rename " + temp + " to " + file);
+   }
+
+
+   /**
+    * The per-thread state for evaluating positions: a board and move buffers.
+    */
+   private class Worker {
+
+      final CheckersData data = new CheckersData();
+      final long[] turns = new long[CheckersData.MAX_MOVES];
+
+      int[] counts;
+      byte[] values;
+      int shortestLoss;    // fastest loss for the opponent found among the moves
+      int longestWin;      // slowest win for the opponent found among the moves
+      boolean undecided;   // some move leads to a position with no value yet
+      int moveCount;
+
+
+      /**
+       * The value of a position from what the previous pass knows, or 0 if
+       * it cannot be decided yet.
+       */
+      int evaluate(int[] counts, long index, byte[] values) {
+         int[] position = EndgameDatabase.position(counts[0], counts[1], counts[2], counts[3], index);
+         if (position == null)
+            return 0;
+         data.setUpPosition(position[0], position[1], position[2]);
+         this.counts = counts;
+         this.values = values;
+         shortestLoss = Integer.MAX_VALUE;
+         longestWin = 0;
+         undecided = false;
+         moveCount = 0;
+
+         int player = position[3];
+         int count = data.generateTurns(player, turns);
+         for (int i = 0; i < count; i++) {
+            data.makeTurn(turns[i]);
+            consider(childValue(CheckersData.opponent(player)));
+            data.unmakeTurn();
+         }
+
+         if (moveCount == 0)
+            return EndgameDatabase.LOST;
+         if (shortestLoss != Integer.MAX_VALUE)
+            return Math.min(shortestLoss + 1, MAX_DISTANCE + 1);
+         if (undecided)
+            return 0;
+         return -Math.min(longestWin + 1, MAX_DISTANCE) - 1;
+      }
+
+
+      private void consider(int value) {
+         moveCount++;
+         if (value < 0)
+            shortestLoss = Math.min(shortestLoss, -value - 1);
+         else if (value > 0)
+            longestWin = Math.max(longestWin, value);
+         else
+            undecided = true;
+      }
+
+
+      /**
+       * The value of the current position for the opponent, who is to move.
+       * A draw found in a finished slice counts as undecided too, which is
+       * correct since it can never become a win or a loss.
+       */
+      private int childValue(int opponent) {
+         int red = data.redMask;
+         int black = data.blackMask;
+         int kings = data.kingMask;
+         if ((opponent == CheckersData.RED ? red : black) == 0)
+            return EndgameDatabase.LOST;
+         int rm = Integer.bitCount(red & ~kings);
+         int rk = Integer.bitCount(red & kings);
+         int bm = Integer.bitCount(black & ~kings);
+         int bk = Integer.bitCount(black & kings);
+         long index = EndgameDatabase.index(red, black, kings, opponent);
+         if (rm == counts[0] && rk == counts[1] && bm == counts[2] && bk == counts[3])
+            return values[(int) index];
+         int value = database.probe(rm, rk, bm, bk, index);
+         if (value == EndgameDatabase.UNKNOWN)
+            throw new IllegalStateException("Slice " + EndgameDatabase.fileName(rm, rk, bm, bk) + " is missing");
+         return value;
+      }
+   }
+
+
+   /**
+    * Command line:  EndgameGenerator maxPieces [directory]
+    * Builds the databases for up to maxPieces pieces in the directory
+    * (by default "endgames").
+    */
+   public static void main(String[] args) {
+      if (args.length < 1) {
+         System.out.println("Usage: EndgameGenerator maxPieces [directory]");
+         return;
+      }
+      int maxPieces = Integer.parseInt(args[0]);
+      File directory = new File(args.length > 1 ? args[1] : "endgames");
+      long start = System.currentTimeMillis();
+      new EndgameGenerator(directory).generate(maxPieces);
+      System.out.println("Done in " + (System.currentTimeMillis() - start) + " ms");
+   }
+}
@@ -0,0 +1,295 @@
+package checkers;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * This class counts what the rules and the engine spend their time on:
+ * move generation in CheckersData, moves made through GameSession, and
+ * searches by SearchEngine, ParallelSearch and MonteCarloSearch.  Every generator in CheckersData is counted:
+ * lists of single hops from generateMoves(), generateJumpsFrom() and the
+ * older getValidMoves() and getValidJumpsFrom(), and whole turns from
+ * generateTurns(), as used by MonteCarloSearch, EndgameGenerator and
+ * Perft.  Hops and turns are counted apart, since a turn may be a chain
+ * of several hops.  Jumps that a chain goes on from are counted apart for
+ * games and for searches too.  There is one instance, INSTANCE, which is
+ * shown through JMX and can be printed every few seconds.
+ *
+ * Nothing is counted unless enabled is set, and every hook tests it
+ * first, so when metrics are off a hook costs one field read.  When they
+ * are on, counting is done with LongAdders, which many threads can add to
+ * without contending.  Searches keep their own counts in plain fields and
+ * add them here once, when they finish.  Each thread of a search adds its
+ * own counts, but the time is added once for the whole search, so that
+ * nodes per second is the speed of all its threads together.
+ */
+
+public class EngineMetrics implements EngineMetricsMBean {
+
+   static final EngineMetrics INSTANCE = new EngineMetrics();
+
+   static volatile boolean enabled;
+
+   static final String OBJECT_NAME = "checkers:type=EngineMetrics";
+
+   private final LongAdder generateCalls = new LongAdder();
+   private final LongAdder generatedMoves = new LongAdder();
+   private final LongAdder jumpMoves = new LongAdder();
+   private final LongAdder generatedTurns = new LongAdder();
+   private final LongAdder captureTurns = new LongAdder();
+   private final LongAdder chainContinuations = new LongAdder();   // in games, through GameSession
+   private final LongAdder movesApplied = new LongAdder();
+   private final LatencyHistogram generationLatency = new LatencyHistogram();   // finding a player's moves in GameSession
+   private final LatencyHistogram applyLatency = new LatencyHistogram();        // making a move in GameSession
+
+   private final LongAdder searches = new LongAdder();
+   private final LongAdder searchNodes = new LongAdder();
+   private final LongAdder searchNanos = new LongAdder();
+   private final LongAdder expandedNodes = new LongAdder();      // nodes whose moves were searched
+   private final LongAdder cutoffs = new LongAdder();
+   private final LongAdder firstMoveCutoffs = new LongAdder();   // cutoffs by the first move searched
+   private final LongAdder tableProbes = new LongAdder();
+   private final LongAdder tableHits = new LongAdder();
+   private final LongAdder searchChainHops = new LongAdder();    // jumps followed by another jump in searches
+   private final LongAdder playouts = new LongAdder();           // by Monte Carlo searches
+   private final LongAdder playoutNanos = new LongAdder();
+
+   private ScheduledExecutorService dumper;
+
+
+   private EngineMetrics() {
+   }
+
+
+   /**
+    * Register the MBean, and act on the system properties: checkers.metrics
+    * switches counting on, and checkers.metrics.dump gives the number of
+    * seconds between dumps to standard output.  Counting can also be
+    * switched on later through JMX.
+    */
+   static void install() {
+      enabled = Boolean.getBoolean("checkers.metrics");
+      try {
+         ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+      }
+      catch (InstanceAlreadyExistsException e) {
+         // installed already
+      }
+      catch (JMException e) {
+         throw new IllegalStateException("Cannot register " + OBJECT_NAME, e);
+      }
+      long seconds = Long.getLong("checkers.metrics.dump", 0);
+      if (seconds > 0)
+         INSTANCE.startDump(seconds, System.out);
+   }
+
+
+   /**
+    * Print dump() every given number of seconds, on a daemon thread.
+    */
+   synchronized void startDump(long seconds, PrintStream out) {
+      if (dumper != null)
+         dumper.shutdown();
+      dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+         Thread thread = new Thread(runnable, "metrics-dump");
+         thread.setDaemon(true);
+         return thread;
+      });
+      dumper.scheduleAtFixedRate(() -> out.println(dump()), seconds, seconds, TimeUnit.SECONDS);
+   }
+
+
+   /* Hooks, called only when enabled is set. */
+
+   /**
+    * A list of count hops was generated; jumps are forced, so a list is
+    * all jumps or none.
+    */
+   void generated(int count, boolean jumps) {
+      generateCalls.increment();
+      generatedMoves.add(count);
+      if (jumps)
+         jumpMoves.add(count);
+   }
+
+   /**
+    * A list of count whole turns was generated, all captures or none.
+    */
+   void generatedTurns(int count, boolean captures) {
+      generateCalls.increment();
+      generatedTurns.add(count);
+      if (captures)
+         captureTurns.add(count);
+   }
+
+   void chainContinued() {
+      chainContinuations.increment();
+   }
+
+   void applied(long applyNanos, long generateNanos) {
+      movesApplied.increment();
+      applyLatency.record(applyNanos);
+      generationLatency.record(generateNanos);
+   }
+
+   /**
+    * An alpha-beta search finished after nanos of wall-clock time,
+    * however many threads it ran on.
+    */
+   void searched(long nanos) {
+      searches.increment();
+      searchNanos.add(nanos);
+   }
+
+   /**
+    * The counts of one thread of an alpha-beta search.
+    */
+   void searchCounts(long nodes, long expanded, long cutoffCount, long firstMoveCutoffCount,
+         long probes, long hits, long chains) {
+      searchNodes.add(nodes);
+      expandedNodes.add(expanded);
+      cutoffs.add(cutoffCount);
+      firstMoveCutoffs.add(firstMoveCutoffCount);
+      tableProbes.add(probes);
+      tableHits.add(hits);
+      searchChainHops.add(chains);
+   }
+
+   /**
+    * A Monte Carlo search ran count playouts, on all its threads, in nanos
+    * of wall-clock time.
+    */
+   void playedOut(long count, long nanos) {
+      searches.increment();
+      playouts.add(count);
+      playoutNanos.add(nanos);
+   }
+
+
+   /* The MBean attributes and operations. */
+
+   public boolean isEnabled() {
+      return enabled;
+   }
+
+   public void setEnabled(boolean on) {
+      enabled = on;
+   }
+
+   public long getGenerateCalls() {
+      return generateCalls.sum();
+   }
+
+   public long getGeneratedMoves() {
+      return generatedMoves.sum();
+   }
+
+   public double getJumpRatio() {
+      return ratio(jumpMoves.sum(), generatedMoves.sum());
+   }
+
+   public long getGeneratedTurns() {
+      return generatedTurns.sum();
+   }
+
+   public double getCaptureTurnRatio() {
+      return ratio(captureTurns.sum(), generatedTurns.sum());
+   }
+
+   public long getChainContinuations() {
+      return chainContinuations.sum();
+   }
+
+   public long getMovesApplied() {
+      return movesApplied.sum();
+   }
+
+   public double getGenerationMeanMicros() {
+      return generationLatency.meanNanos() / 1e3;
+   }
+
+   public double getGenerationP99Micros() {
+      return generationLatency.percentileNanos(0.99) / 1e3;
+   }
+
+   public double getApplyMeanMicros() {
+      return applyLatency.meanNanos() / 1e3;
+   }
+
+   public double getApplyP99Micros() {
+      return applyLatency.percentileNanos(0.99) / 1e3;
+   }
+
+   public long getSearches() {
+      return searches.sum();
+   }
+
+   public long getSearchNodes() {
+      return searchNodes.sum();
+   }
+
+   public long getSearchNodesPerSecond() {
+      return (long) (searchNodes.sum() * 1e9 / Math.max(1, searchNanos.sum()));
+   }
+
+   public double getCutoffRate() {
+      return ratio(cutoffs.sum(), expandedNodes.sum());
+   }
+
+   public double getFirstMoveCutoffRate() {
+      return ratio(firstMoveCutoffs.sum(), cutoffs.sum());
+   }
+
+   public double getTableHitRate() {
+      return ratio(tableHits.sum(), tableProbes.sum());
+   }
+
+   public long getSearchChainHops() {
+      return searchChainHops.sum();
+   }
+
+   public long getPlayouts() {
+      return playouts.sum();
+   }
+
+   public long getPlayoutsPerSecond() {
+      return (long) (playouts.sum() * 1e9 / Math.max(1, playoutNanos.sum()));
+   }
+
+   private static double ratio(long part, long whole) {
+      return whole == 0 ? 0 : (double) part / whole;
+   }
+
+
+   /**
+    * All the metrics on four lines of text.
+    */
+   public String dump() {
+      return String.format("generation: %d calls, %d moves, %.1f%% jumps, %d turns, %.1f%% captures%n"
+            + "game moves: %d, %d chain continuations, apply %s, generate %s%n"
+            + "search: %d searches, %d nodes, %d nodes/sec, cutoffs %.1f%% (%.1f%% on first move), table hits %.1f%%,"
+            + " %d chain hops%n"
+            + "monte carlo: %d playouts, %d playouts/sec",
+            getGenerateCalls(), getGeneratedMoves(), getJumpRatio() * 100, getGeneratedTurns(),
+            getCaptureTurnRatio() * 100, getMovesApplied(), getChainContinuations(), applyLatency, generationLatency,
+            getSearches(), getSearchNodes(), getSearchNodesPerSecond(), getCutoffRate() * 100,
+            getFirstMoveCutoffRate() * 100, getTableHitRate() * 100, getSearchChainHops(),
+            getPlayouts(), getPlayoutsPerSecond());
+   }
+
+   public void reset() {
+      for (LongAdder adder : new LongAdder[] { generateCalls, generatedMoves, jumpMoves, generatedTurns,
+            captureTurns, chainContinuations, movesApplied, searches, searchNodes, searchNanos, expandedNodes,
+            cutoffs, firstMoveCutoffs, tableProbes, tableHits, searchChainHops, playouts, playoutNanos })
+         adder.reset();
+      generationLatency.reset();
+      applyLatency.reset();
+   }
+}
@@ -0,0 +1,57 @@
+package checkers;
+
+/**
+ * The management interface of EngineMetrics, as seen through JMX under
+ * the name "checkers:type=EngineMetrics".  Times are in microseconds.
+ */
+
+public interface EngineMetricsMBean {
+
+   boolean isEnabled();
+
+   void setEnabled(boolean enabled);
+
+   long getGenerateCalls();
+
+   long getGeneratedMoves();
+
+   double getJumpRatio();
+
+   long getGeneratedTurns();
+
+   double getCaptureTurnRatio();
+
+   long getChainContinuations();
+
+   long getMovesApplied();
+
+   double getGenerationMeanMicros();
+
+   double getGenerationP99Micros();
+
+   double getApplyMeanMicros();
+
+   double getApplyP99Micros();
+
+   long getSearches();
+
+   long getSearchNodes();
+
+   long getSearchNodesPerSecond();
+
+   double getCutoffRate();
+
+   double getFirstMoveCutoffRate();
+
+   double getTableHitRate();
+
+   long getSearchChainHops();
+
+   long getPlayouts();
+
+   long getPlayoutsPerSecond();
+
+   String dump();
+
+   void reset();
+}
@@ -0,0 +1,399 @@
+package checkers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class tunes the Evaluator weights on positions from finished games
+ * ("Texel tuning").  Each position is labelled with how its game ended for
+ * red, and the tuner minimizes the mean squared difference between that
+ * result and 1 / (1 + e^(-score / scale)), the expected result for the
+ * Evaluator's score of the position.  The scale is fitted to the starting
+ * weights first, unless it is given.
+ *
+ * Positions are kept in a file of 13-byte records, the red, black and king
+ * masks followed by the result (0 red lost, 1 draw, 2 red won), made from
+ * game records by "extract".  "tune" streams the file a chunk at a time,
+ * so it never holds more than one chunk, and takes one Adam step per
+ * chunk.  The gradient for a chunk is summed over the cores by a fork/join
+ * reduction.  After each pass over the file the weights are written to the
+ * checkpoint file, from which a later run carries on.  The checkpoint also
+ * keeps the unrounded weights, the scale, Adam's state and the number of
+ * passes made, in comment lines starting with "#tuner" that Evaluator
+ * skips, so a resumed run goes on minimizing the same loss from where the
+ * last one stopped.
+ */
+
+public class EvaluationTuner {
+
+   static final int RECORD_SIZE = 13;
+
+   static final int LEAF_POSITIONS = 8192;   // positions summed by one task without splitting
+
+   static final String STATE_PREFIX = "#tuner";
+
+   private final ForkJoinPool pool;
+   private final double rate;
+
+   double scale;
+   final double[] weights;
+
+   /* Adam's running averages of the gradient and of its square. */
+
+   private final double[] moment = new double[Evaluator.FEATURES];
+   private final double[] squared = new double[Evaluator.FEATURES];
+   private long steps;
+
+   int passesDone;
+
+
+   EvaluationTuner(double[] weights, double scale, int threads, double rate) {
+      this.weights = weights.clone();
+      this.scale = scale;
+      this.pool = new ForkJoinPool(threads);
+      this.rate = rate;
+   }
+
+
+   /**
+    * The loss and the gradient of the loss for the positions from first to
+    * last - 1 in a chunk, as sums over the positions: element 0 is the loss
+    * and element 1 + i the derivative for weight i.  Large ranges are split
+    * in two and the halves summed.
+    */
+   private static class Gradient extends RecursiveTask<double[]> {
+      private static final long serialVersionUID = 1L;
+
+      final ByteBuffer chunk;
+      final int first;
+      final int last;
+      final double[] weights;
+      final double scale;
+
+      Gradient(ByteBuffer chunk, int first, int last, double[] weights, double scale) {
+         this.chunk = chunk;
+         this.first = first;
+         this.last = last;
+         this.weights = weights;
+         this.scale = scale;
+      }
+
+      @Override
+      protected double[] compute() {
+         if (last - first > LEAF_POSITIONS) {
+            int middle = (first + last) >>> 1;
+            Gradient left = new Gradient(chunk, first, middle, weights, scale);
+            left.fork();
+            double[] sum = new Gradient(chunk, middle, last, weights, scale).compute();
+            double[] other = left.join();
+            for (int i = 0; i < sum.length; i++)
+               sum[i] += other[i];
+            return sum;
+         }
+         double[] sum = new double[1 + Evaluator.FEATURES];
+         int[] features = new int[Evaluator.FEATURES];
+         for (int n = first; n < last; n++) {
+            int offset = n * RECORD_SIZE;
+            Evaluator.features(chunk.getInt(offset), chunk.getInt(offset + 4), chunk.getInt(offset + 8), features);
+            double result = chunk.get(offset + 12) / 2.0;
+            double score = 0;
+            for (int i = 0; i < features.length; i++)
+               score += weights[i] * features[i];
+            double expected = 1 / (1 + Math.exp(-score / scale));
+            double error = expected - result;
+            sum[0] += error * error;
+            double slope = 2 * error * expected * (1 - expected) / scale;
+            for (int i = 0; i < features.length; i++)
+               sum[1 + i] += slope * features[i];
+         }
+         return sum;
+      }
+   }
+
+
+   /**
+    * The summed loss and gradient over the first count positions of chunk.
+    */
+   double[] gradient(ByteBuffer chunk, int count) {
+      return pool.invoke(new Gradient(chunk, 0, count, weights.clone(), scale));
+   }
+
+
+   /**
+    * Take one Adam step down the mean gradient of count positions.
+    */
+   void step(double[] gradient, int count) {
+      steps++;
+      for (int i = 0; i < weights.length; i++) {
+         double g = gradient[1 + i] / count;
+         moment[i] = 0.9 * moment[i] + 0.1 * g;
+         squared[i] = 0.999 * squared[i] + 0.001 * g * g;
+         double m = moment[i] / (1 - Math.pow(0.9, steps));
+         double v = squared[i] / (1 - Math.pow(0.999, steps));
+         weights[i] -= rate * m / (Math.sqrt(v) + 1e-8);
+      }
+   }
+
+
+   /**
+    * Fit the scale to the positions in a chunk by golden-section search,
+    * keeping the weights as they are.
+    */
+   void fitScale(ByteBuffer chunk, int count) {
+      double low = 10;
+      double high = 2000;
+      double ratio = (Math.sqrt(5) - 1) / 2;
+      while (high - low > 0.5) {
+         double a = high - ratio * (high - low);
+         double b = low + ratio * (high - low);
+         scale = a;
+         double lossA = gradient(chunk, count)[0];
+         scale = b;
+         double lossB = gradient(chunk, count)[0];
+         if (lossA < lossB)
+            high = b;
+         else
+            low = a;
+      }
+      scale = (low + high) / 2;
+   }
+
+
+   /**
+    * Make one pass over the positions file, stepping after every chunk.
+    * Returns the mean loss over the pass, each chunk measured before its
+    * step, and the number of positions.
+    */
+   double[] pass(Path file, ByteBuffer chunk) throws IOException {
+      double loss = 0;
+      long positions = 0;
+      try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+         int count;
+         while ((count = readChunk(in, chunk)) > 0) {
+            if (scale <= 0)
+               fitScale(chunk, count);
+            double[] gradient = gradient(chunk, count);
+            loss += gradient[0];
+            positions += count;
+            step(gradient, count);
+         }
+      }
+      passesDone++;
+      return new double[] { loss / Math.max(1, positions), positions };
+   }
+
+
+   /**
+    * Read as many whole records as fit into chunk.  Returns the number read.
+    */
+   private static int readChunk(FileChannel in, ByteBuffer chunk) throws IOException {
+      chunk.clear();
+      while (chunk.hasRemaining() && in.read(chunk) >= 0)
+         ;
+      return chunk.position() / RECORD_SIZE;
+   }
+
+
+   /**
+    * Write the weights and the tuner's state to file, through a temporary
+    * file so that a crash never leaves half a checkpoint.
+    */
+   void checkpoint(Path file, double loss) throws IOException {
+      StringBuilder text = new StringBuilder();
+      text.append(String.format("# pass %d, loss %.6f, scale %.2f%n", passesDone, loss, scale));
+      for (int i = 0; i < weights.length; i++)
+         text.append(String.format("%s %.4f%n", Evaluator.FEATURE_NAMES.get(i), weights[i]));
+      text.append(STATE_PREFIX).append(" passes ").append(passesDone).append('\n');
+      text.append(STATE_PREFIX).append(" scale ").append(scale).append('\n');
+      text.append(STATE_PREFIX).append(" steps ").append(steps).append('\n');
+      text.append(STATE_PREFIX).append(" weights");
+      for (double value : weights)
+         text.append(' ').append(value);
+      text.append('\n').append(STATE_PREFIX).append(" moment");
+      for (double value : moment)
+         text.append(' ').append(value);
+      text.append('\n').append(STATE_PREFIX).append(" squared");
+      for (double value : squared)
+         text.append(' ').append(value);
+      text.append('\n');
+      Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+      Files.write(temp, text.toString().getBytes());
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   }
+
+
+   /**
+    * Carry on from a checkpoint: take the weights at full precision, the
+    * scale, Adam's state and the number of passes it recorded.
+    */
+   void restore(Path file) throws IOException {
+      for (String line : Files.readAllLines(file)) {
+         String[] parts = line.trim().split("\\s+");
+         if (parts.length < 3 || !parts[0].equals(STATE_PREFIX))
+            continue;
+         switch (parts[1]) {
+         case "passes": passesDone = Integer.parseInt(parts[2]); break;
+         case "scale": scale = Double.parseDouble(parts[2]); break;
+         case "steps": steps = Long.parseLong(parts[2]); break;
+         case "weights": readValues(parts, weights, file); break;
+         case "moment": readValues(parts, moment, file); break;
+         case "squared": readValues(parts, squared, file); break;
+         default:
+            throw new IOException("Unknown tuner state " + parts[1] + " in " + file);
+         }
+      }
+   }
+
+
+   private static void readValues(String[] parts, double[] values, Path file) throws IOException {
+      if (parts.length != 2 + values.length)
+         throw new IOException("Need " + values.length + " values for " + parts[1] + " in " + file);
+      for (int i = 0; i < values.length; i++)
+         values[i] = Double.parseDouble(parts[2 + i]);
+   }
+
+
+   /**
+    * Write the positions at the start of each turn in the games in files
+    * to out, labelled with the result, leaving out the first skipTurns
+    * turns of each game and positions where the player to move must jump.
+    * Returns the number of positions written.
+    */
+   static long extract(List<Path> files, Path out, int skipTurns) throws IOException {
+      CheckersData board = new CheckersData();
+      GameRecord record = new GameRecord();
+      int[] buffer = new int[CheckersData.MAX_MOVES];
+      ByteBuffer block = ByteBuffer.allocateDirect(RECORD_SIZE << 16);
+      long written = 0;
+      try (FileChannel channel = FileChannel.open(out, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+         for (Path file : files)
+            try (GameRecordReader in = GameRecordReader.open(file)) {
+               while (in.read(record)) {
+                  byte result = (byte) (record.winner == CheckersData.RED ? 2 : record.winner == CheckersData.BLACK ? 0 : 1);
+                  record.setUp(board);
+                  int player = record.firstPlayer;
+                  int turn = 0;
+                  boolean turnStart = true;
+                  for (int i = 0; i <= record.moveCount; i++) {
+                     if (turnStart && turn++ >= skipTurns && !board.mustJump(player)) {
+                        if (block.remaining() < RECORD_SIZE) {
+                           block.flip();
+                           while (block.hasRemaining())
+                              channel.write(block);
+                           block.clear();
+                        }
+                        block.putInt(board.redMask).putInt(board.blackMask).putInt(board.kingMask).put(result);
+                        written++;
+                     }
+                     if (i == record.moveCount)
+                        break;
+                     int move = record.moves[i];
+                     int from = CheckersMove.fromSquare(move);
+                     int to = CheckersMove.toSquare(move);
+                     board.doMove(CheckersData.rowOf(from), CheckersData.colOf(from), CheckersData.rowOf(to),
+                           CheckersData.colOf(to));
+                     turnStart = !(CheckersMove.isPackedJump(move) && board.generateJumpsFrom(player, to, buffer) > 0);
+                     if (turnStart)
+                        player = CheckersData.opponent(player);
+                  }
+               }
+            }
+         block.flip();
+         while (block.hasRemaining())
+            channel.write(block);
+      }
+      return written;
+   }
+
+
+   /**
+    * Command line:
+    *   EvaluationTuner extract positions [-skip turns] games...
+    *   EvaluationTuner tune positions checkpoint [-passes n] [-threads n] [-chunk positions] [-rate r] [-scale s]
+    * extract makes a positions file from game record files, skipping the
+    * first turns of each game (default 8).  tune starts from the weights
+    * and state in the checkpoint file if there is one, and from the
+    * Evaluator's weights if not, and writes the checkpoint after every
+    * pass.  -scale replaces the scale the checkpoint recorded.
+    */
+   public static void main(String[] args) throws IOException {
+      if (args.length >= 2 && args[0].equals("extract")) {
+         int skip = 8;
+         List<Path> games = new ArrayList<>();
+         for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("-skip") && i + 1 < args.length)
+               skip = Integer.parseInt(args[++i]);
+            else
+               games.add(Paths.get(args[i]));
+         }
+         long start = System.nanoTime();
+         long written = extract(games, Paths.get(args[1]), skip);
+         System.out.printf("%d positions in %.2f s%n", written, (System.nanoTime() - start) / 1e9);
+         return;
+      }
+      if (args.length < 3 || !args[0].equals("tune")) {
+         System.out.println("Usage: EvaluationTuner extract positions [-skip turns] games...");
+         System.out.println("       EvaluationTuner tune positions checkpoint [-passes n] [-threads n]"
+               + " [-chunk positions] [-rate r] [-scale s]");
+         return;
+      }
+      Path positions = Paths.get(args[1]);
+      Path checkpoint = Paths.get(args[2]);
+      int passes = 10;
+      int threads = Runtime.getRuntime().availableProcessors();
+      int chunk = 1 << 20;
+      double rate = 0.5;
+      double scale = 0;
+      for (int i = 3; i + 1 < args.length; i += 2) {
+         switch (args[i]) {
+         case "-passes": passes = Integer.parseInt(args[i + 1]); break;
+         case "-threads": threads = Integer.parseInt(args[i + 1]); break;
+         case "-chunk": chunk = Integer.parseInt(args[i + 1]); break;
+         case "-rate": rate = Double.parseDouble(args[i + 1]); break;
+         case "-scale": scale = Double.parseDouble(args[i + 1]); break;
+         default:
+            throw new IllegalArgumentException("Unknown option " + args[i]);
+         }
+      }
+
+      double[] weights;
+      if (Files.exists(checkpoint))
+         weights = Evaluator.readWeightValues(checkpoint);
+      else {
+         int[] current = Evaluator.getWeights();
+         weights = new double[current.length];
+         for (int i = 0; i < current.length; i++)
+            weights[i] = current[i];
+      }
+      EvaluationTuner tuner = new EvaluationTuner(weights, scale, threads, rate);
+      if (Files.exists(checkpoint)) {
+         tuner.restore(checkpoint);
+         if (scale > 0)
+            tuner.scale = scale;
+      }
+      ByteBuffer buffer = ByteBuffer.allocateDirect(chunk * RECORD_SIZE);
+      for (int pass = 1; pass <= passes; pass++) {
+         long start = System.nanoTime();
+         double[] result = tuner.pass(positions, buffer);
+         double seconds = (System.nanoTime() - start) / 1e9;
+         tuner.checkpoint(checkpoint, result[0]);
+         System.out.printf("pass %d: loss %.6f, scale %.1f, %.0f positions in %.2f s, %.0f positions/sec/core, weights",
+               tuner.passesDone, result[0], tuner.scale, result[1], seconds, result[1] / seconds / threads);
+         for (double weight : tuner.weights)
+            System.out.printf(" %.2f", weight);
+         System.out.println();
+      }
+      tuner.pool.shutdown();
+   }
+}
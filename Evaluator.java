@@ -0,0 +1,175 @@
+package checkers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class scores a position from the point of view of one player,
+ * for use by the search engine.  Positive scores are good for that player.
+ * The score is made of material, with kings worth more than men, plus
+ * small bonuses for advancing men, for keeping the back row guarded and
+ * for mobility.
+ *
+ * Each term is a feature, counted for red minus the same count for black,
+ * times a weight.  The weights can be tuned by EvaluationTuner and read
+ * from the file named by the checkers.weights system property, one
+ * "name value" line per weight.
+ */
+
+public class Evaluator {
+
+   static final int MAN = 100;
+   static final int KING = 160;
+   static final int ADVANCE = 3;       // for each row a man has moved forward
+   static final int BACK_ROW = 8;      // for each man still on its own back row
+   static final int MOBILITY = 0;      // for each step move
+
+   static final int RED_BACK_ROW = 0xF0000000;    // row 7
+   static final int BLACK_BACK_ROW = 0x0000000F;  // row 0
+
+   /* The features, as indexes into the weights. */
+
+   static final int MEN = 0;
+   static final int KINGS = 1;
+   static final int ADVANCED_ROWS = 2;
+   static final int BACK_ROW_MEN = 3;
+   static final int STEPS = 4;
+   static final int FEATURES = 5;
+
+   static final List<String> FEATURE_NAMES = List.of("men", "kings", "advance", "backRow", "mobility");
+
+   static final int[] DEFAULT_WEIGHTS = { MAN, KING, ADVANCE, BACK_ROW, MOBILITY };
+
+   private static volatile int[] weights = loadDefaultWeights();
+
+
+   /**
+    * Score the position for player.
+    */
+   static int evaluate(CheckersData data, int player) {
+      int[] w = weights;
+      int red = data.redMask;
+      int black = data.blackMask;
+      int kings = data.kingMask;
+      int score = (Integer.bitCount(red & ~kings) - Integer.bitCount(black & ~kings)) * w[MEN]
+            + (Integer.bitCount(red & kings) - Integer.bitCount(black & kings)) * w[KINGS]
+            + advancedRows(red & ~kings, black & ~kings) * w[ADVANCED_ROWS]
+            + (Integer.bitCount(red & ~kings & RED_BACK_ROW) - Integer.bitCount(black & ~kings & BLACK_BACK_ROW))
+                  * w[BACK_ROW_MEN];
+      if (w[STEPS] != 0)
+         score += steps(red, black, kings) * w[STEPS];
+      return player == CheckersData.RED ? score : -score;
+   }
+
+
+   /**
+    * Write the features of a position into features, each counted for red
+    * minus black.  evaluate() for RED is the sum of features times weights.
+    */
+   static void features(int red, int black, int kings, int[] features) {
+      features[MEN] = Integer.bitCount(red & ~kings) - Integer.bitCount(black & ~kings);
+      features[KINGS] = Integer.bitCount(red & kings) - Integer.bitCount(black & kings);
+      features[ADVANCED_ROWS] = advancedRows(red & ~kings, black & ~kings);
+      features[BACK_ROW_MEN] = Integer.bitCount(red & ~kings & RED_BACK_ROW)
+            - Integer.bitCount(black & ~kings & BLACK_BACK_ROW);
+      features[STEPS] = steps(red, black, kings);
+   }
+
+
+   /**
+    * The rows red men have moved forward, less the rows black men have.
+    * Red men advance towards row 0 and black men towards row 7.
+    */
+   private static int advancedRows(int redMen, int blackMen) {
+      int rows = 0;
+      for (; redMen != 0; redMen &= redMen - 1)
+         rows += 7 - CheckersData.rowOf(Integer.numberOfTrailingZeros(redMen));
+      for (; blackMen != 0; blackMen &= blackMen - 1)
+         rows -= CheckersData.rowOf(Integer.numberOfTrailingZeros(blackMen));
+      return rows;
+   }
+
+
+   /**
+    * The number of step moves red has, less the number black has, ignoring
+    * whether a jump is forced.
+    */
+   private static int steps(int red, int black, int kings) {
+      int empty = ~(red | black);
+      int steps = 0;
+      for (int dir = CheckersData.UP_LEFT; dir <= CheckersData.DOWN_RIGHT; dir++) {
+         boolean up = dir <= CheckersData.UP_RIGHT;
+         steps += Integer.bitCount(CheckersData.shift(up ? red : red & kings, dir) & empty);
+         steps -= Integer.bitCount(CheckersData.shift(up ? black & kings : black, dir) & empty);
+      }
+      return steps;
+   }
+
+
+   static int[] getWeights() {
+      return weights.clone();
+   }
+
+
+   /**
+    * Use new weights, one for each feature, from the next evaluation on.
+    */
+   static void setWeights(int[] newWeights) {
+      if (newWeights.length != FEATURES)
+         throw new IllegalArgumentException("Need " + FEATURES + " weights, not " + newWeights.length);
+      weights = newWeights.clone();
+   }
+
+
+   /**
+    * Read a weights file, rounding each weight to an int.
+    */
+   static int[] readWeights(Path file) throws IOException {
+      double[] values = readWeightValues(file);
+      int[] read = new int[FEATURES];
+      for (int i = 0; i < FEATURES; i++)
+         read[i] = (int) Math.round(values[i]);
+      return read;
+   }
+
+
+   /**
+    * Read a weights file as written by EvaluationTuner, where weights may
+    * have fractions.  Weights the file leaves out keep their default
+    * values, and lines starting with # are comments.
+    */
+   static double[] readWeightValues(Path file) throws IOException {
+      double[] read = new double[FEATURES];
+      for (int i = 0; i < FEATURES; i++)
+         read[i] = DEFAULT_WEIGHTS[i];
+      for (String line : Files.readAllLines(file)) {
+         String[] parts = line.trim().split("\\s+");
+         if (parts.length != 2 || parts[0].startsWith("#"))
+            continue;
+         int feature = FEATURE_NAMES.indexOf(parts[0]);
+         if (feature < 0)
+            throw new IOException("Unknown weight " + parts[0] + " in " + file);
+         read[feature] = Double.parseDouble(parts[1]);
+      }
+      return read;
+   }
+
+
+   private static int[] loadDefaultWeights() {
+      String file = System.getProperty("checkers.weights");
+      if (file == null)
+         return DEFAULT_WEIGHTS.clone();
+      try {
+         return readWeights(Paths.get(file));
+      }
+      catch (IOException e) {
+         System.err.println("Cannot read weights from " + file + ": " + e.getMessage() + "; using "
+               + Arrays.toString(DEFAULT_WEIGHTS));
+         return DEFAULT_WEIGHTS.clone();
+      }
+   }
+}
@@ -0,0 +1,82 @@
+package checkers;
+
+import java.util.Arrays;
+
+/**
+ * One recorded game: the starting position, the player who moved first,
+ * every move in the order it was made, and the result.  Moves are kept in
+ * the packed form of CheckersMove, one entry per jump of a chain, exactly
+ * as GameSession.makeMove() takes them.
+ *
+ * Records are meant to be reused: GameRecordReader and Pdn fill in an
+ * existing record, so reading a game allocates nothing once the move
+ * array is big enough.
+ */
+
+public class GameRecord {
+
+   static final int STANDARD_RED = 0xFFF00000;     // squares 20-31, as set up by setUpGame()
+   static final int STANDARD_BLACK = 0x00000FFF;   // squares 0-11
+
+   int red = STANDARD_RED;          // the starting position, as CheckersData masks
+   int black = STANDARD_BLACK;
+   int kings;
+
+   int firstPlayer = CheckersData.RED;
+
+   int winner = CheckersData.EMPTY;   // RED or BLACK, or EMPTY for a draw or an unfinished game
+
+   int[] moves = new int[128];
+   int moveCount;
+
+
+   /**
+    * Start a new record from the normal starting position.
+    */
+   void clear() {
+      start(STANDARD_RED, STANDARD_BLACK, 0, CheckersData.RED);
+   }
+
+
+   /**
+    * Start a new record from the given position and player.
+    */
+   void start(int red, int black, int kings, int player) {
+      this.red = red;
+      this.black = black;
+      this.kings = kings;
+      firstPlayer = player;
+      winner = CheckersData.EMPTY;
+      moveCount = 0;
+   }
+
+
+   void start(CheckersData board, int player) {
+      start(board.redMask, board.blackMask, board.kingMask, player);
+   }
+
+
+   boolean isStandardStart() {
+      return red == STANDARD_RED && black == STANDARD_BLACK && kings == 0 && firstPlayer == CheckersData.RED;
+   }
+
+
+   void add(int move) {
+      if (moveCount == moves.length)
+         moves = Arrays.copyOf(moves, moveCount * 2);
+      moves[moveCount++] = move;
+   }
+
+
+   void add(CheckersMove move) {
+      add(move.toPacked());
+   }
+
+
+   /**
+    * Set up the board at the start of the game.
+    */
+   void setUp(CheckersData board) {
+      board.setUpPosition(red, black, kings);
+   }
+}
@@ -0,0 +1,169 @@
+package checkers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class reads the games written by GameRecordWriter, one at a time,
+ * into a GameRecord supplied by the caller.  The channel is read in large
+ * blocks into one buffer, and moves are decoded straight into the
+ * record's move array, so reading a game allocates nothing.
+ */
+
+public class GameRecordReader implements Closeable {
+
+   private static final int[] MOVES = new int[32 * 32];   // the packed move for each from and to square
+
+   static {
+      for (int from = 0; from < 32; from++)
+         for (int to = 0; to < 32; to++) {
+            int r1 = CheckersData.rowOf(from), c1 = CheckersData.colOf(from);
+            int r2 = CheckersData.rowOf(to), c2 = CheckersData.colOf(to);
+            if (r1 - r2 == 2 || r1 - r2 == -2)
+               MOVES[(from << 5) | to] = CheckersMove.packJump(from, to, CheckersData.square((r1 + r2) / 2, (c1 + c2) / 2));
+            else
+               MOVES[(from << 5) | to] = CheckersMove.pack(from, to);
+         }
+   }
+
+   private final ReadableByteChannel channel;
+   private final ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(1 << 16, GameRecordWriter.MAX_RECORD_SIZE));
+   private boolean endOfInput;
+
+   private long games;
+
+
+   GameRecordReader(ReadableByteChannel channel) throws IOException {
+      this.channel = channel;
+      buffer.limit(0);
+      fill(GameRecordWriter.HEADER_SIZE);
+      if (buffer.remaining() < GameRecordWriter.HEADER_SIZE || buffer.getInt() != GameRecordWriter.MAGIC)
+         throw new IOException("Not a game record file");
+      int version = buffer.getShort();
+      buffer.getShort();
+      if (version != GameRecordWriter.VERSION)
+         throw new IOException("Unknown game record version " + version);
+   }
+
+
+   static GameRecordReader open(Path path) throws IOException {
+      return new GameRecordReader(FileChannel.open(path, StandardOpenOption.READ));
+   }
+
+
+   /**
+    * Read the next game into record.  Returns false if there are no more
+    * games, and throws an IOException if the file ends in the middle of one.
+    */
+   boolean read(GameRecord record) throws IOException {
+      fill(15);
+      if (!buffer.hasRemaining())
+         return false;
+      int flags = buffer.get();
+      if ((flags & GameRecordWriter.CUSTOM_START) != 0) {
+         need(14);
+         int red = buffer.getInt();
+         int black = buffer.getInt();
+         int kings = buffer.getInt();
+         int player = (flags & GameRecordWriter.BLACK_FIRST) != 0 ? CheckersData.BLACK : CheckersData.RED;
+         record.start(red, black, kings, player);
+      }
+      else {
+         need(2);
+         record.clear();
+      }
+      switch (flags & 3) {
+      case 1: record.winner = CheckersData.RED; break;
+      case 2: record.winner = CheckersData.BLACK; break;
+      default: record.winner = CheckersData.EMPTY;
+      }
+
+      int count = buffer.getShort() & 0xFFFF;
+      fill((count * 11 + 7) / 8);
+      if (record.moves.length < count)
+         record.moves = new int[Math.max(count, record.moves.length * 2)];
+      long bits = 0;
+      int bitCount = 0;
+      int landed = -1;
+      for (int i = 0; i < count; i++) {
+         // bytes are taken only as the bits are needed, so as not to run into the next game
+         if (bitCount < 1) {
+            bits = nextByte(bits);
+            bitCount += 8;
+         }
+         boolean continues = ((bits >>> (bitCount - 1)) & 1) != 0;
+         bitCount--;
+         int move;
+         if (continues) {
+            if (landed < 0)
+               throw new IOException("A move continues a jump chain that was never started");
+            while (bitCount < 5) {
+               bits = nextByte(bits);
+               bitCount += 8;
+            }
+            bitCount -= 5;
+            move = MOVES[(landed << 5) | ((int) (bits >>> bitCount) & 31)];
+         }
+         else {
+            while (bitCount < 10) {
+               bits = nextByte(bits);
+               bitCount += 8;
+            }
+            bitCount -= 10;
+            move = MOVES[(int) (bits >>> bitCount) & 0x3FF];
+         }
+         record.moves[i] = move;
+         landed = CheckersMove.isPackedJump(move) ? CheckersMove.toSquare(move) : -1;
+      }
+      record.moveCount = count;
+      games++;
+      return true;
+   }
+
+
+   private long nextByte(long bits) throws IOException {
+      if (!buffer.hasRemaining())
+         throw new IOException("The last game is cut short");
+      return (bits << 8) | (buffer.get() & 0xFF);
+   }
+
+
+   long gamesRead() {
+      return games;
+   }
+
+
+   /**
+    * Make sure the buffer holds at least count bytes, unless the input
+    * ends first.
+    */
+   private void fill(int count) throws IOException {
+      if (buffer.remaining() >= count || endOfInput)
+         return;
+      buffer.compact();
+      while (buffer.position() < count) {
+         if (channel.read(buffer) < 0) {
+            endOfInput = true;
+            break;
+         }
+      }
+      buffer.flip();
+   }
+
+
+   private void need(int count) throws IOException {
+      fill(count);
+      if (buffer.remaining() < count)
+         throw new IOException("The last game is cut short");
+   }
+
+
+   public void close() throws IOException {
+      channel.close();
+   }
+}
@@ -0,0 +1,152 @@
+package checkers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class writes games to a channel in a compact binary format, read
+ * back by GameRecordReader.  The file starts with an 8 byte header, the
+ * magic number and the version, followed by one record per game:
+ *
+ *    byte     flags: bits 0-1 the winner (0 none, 1 RED, 2 BLACK),
+ *             bit 2 set if the game starts from its own position,
+ *             bit 3 set if BLACK moves first
+ *    3 ints   the red, black and king masks, only if bit 2 is set
+ *    short    the number of moves, counting each jump of a chain (unsigned)
+ *    bits     the moves, most significant bit first, padded to a byte
+ *
+ * Each move starts with one bit.  A 0 is followed by the from square and
+ * the to square, 5 bits each, as numbered by CheckersData.square().  A 1
+ * means the move continues a jump chain from where the last one landed,
+ * and is followed by the to square only.  A quiet move takes 11 bits and
+ * each further jump of a chain 6 bits.
+ *
+ * The writer keeps one buffer and encodes straight into it, so writing a
+ * game allocates nothing.
+ */
+
+public class GameRecordWriter implements Closeable {
+
+   static final int MAGIC = 0x434B4752;   // "CKGR"
+   static final int VERSION = 1;
+   static final int HEADER_SIZE = 8;
+
+   static final int CUSTOM_START = 1 << 2;
+   static final int BLACK_FIRST = 1 << 3;
+
+   static final int MAX_MOVES = 0xFFFF;
+   static final int MAX_RECORD_SIZE = 15 + (MAX_MOVES * 11 + 7) / 8;   // the longest game possible
+
+   private final WritableByteChannel channel;
+   private final ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(1 << 16, MAX_RECORD_SIZE));
+
+   private long bits;      // bits waiting to be put in the buffer, in the low bitCount bits
+   private int bitCount;
+
+   private long games;
+
+
+   GameRecordWriter(WritableByteChannel channel) throws IOException {
+      this.channel = channel;
+      buffer.putInt(MAGIC);
+      buffer.putShort((short) VERSION);
+      buffer.putShort((short) 0);
+   }
+
+
+   /**
+    * Create or replace the file at path.
+    */
+   static GameRecordWriter create(Path path) throws IOException {
+      return new GameRecordWriter(FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+   }
+
+
+   static int encodeWinner(int winner) {
+      if (winner == CheckersData.RED)
+         return 1;
+      if (winner == CheckersData.BLACK)
+         return 2;
+      return 0;
+   }
+
+
+   /**
+    * Add one game.  The moves are only stored, not checked; use
+    * GameReplayer to check that a file holds legal games.
+    */
+   void write(GameRecord record) throws IOException {
+      if (record.moveCount > MAX_MOVES)
+         throw new IllegalArgumentException("A game of " + record.moveCount + " moves is too long to record");
+      if (buffer.remaining() < 15 + (record.moveCount * 11 + 7) / 8)
+         flush();
+
+      int flags = encodeWinner(record.winner);
+      boolean custom = !record.isStandardStart();
+      if (custom)
+         flags |= CUSTOM_START;
+      if (record.firstPlayer == CheckersData.BLACK)
+         flags |= BLACK_FIRST;
+      buffer.put((byte) flags);
+      if (custom) {
+         buffer.putInt(record.red);
+         buffer.putInt(record.black);
+         buffer.putInt(record.kings);
+      }
+      buffer.putShort((short) record.moveCount);
+
+      int landed = -1;   // where the last jump landed, or -1 if the last move was not a jump
+      for (int i = 0; i < record.moveCount; i++) {
+         int move = record.moves[i];
+         int from = CheckersMove.fromSquare(move);
+         int to = CheckersMove.toSquare(move);
+         if (from == landed)
+            put((1 << 5) | to, 6);
+         else
+            put((from << 5) | to, 11);
+         landed = CheckersMove.isPackedJump(move) ? to : -1;
+      }
+      if (bitCount > 0)
+         put(0, 8 - bitCount);
+      games++;
+   }
+
+
+   private void put(int value, int count) {
+      bits = (bits << count) | value;
+      bitCount += count;
+      while (bitCount >= 8) {
+         bitCount -= 8;
+         buffer.put((byte) (bits >>> bitCount));
+      }
+   }
+
+
+   long gamesWritten() {
+      return games;
+   }
+
+
+   void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining())
+         channel.write(buffer);
+      buffer.clear();
+   }
+
+
+   public void close() throws IOException {
+      try {
+         flush();
+      }
+      finally {
+         channel.close();
+      }
+   }
+}
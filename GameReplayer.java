@@ -0,0 +1,94 @@
+package checkers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * This class replays recorded games and checks that every move in them
+ * is legal: that it is one of the moves the player to move has, that
+ * jumps are taken when they must be, and that a jump chain goes on for
+ * as long as the jumping piece can jump.  Moves are checked against
+ * CheckersData.generateMoves() and generateJumpsFrom() and made with
+ * doMove(), the same path as doMakeMove(), into one board that is reused
+ * for every game, so a replay allocates nothing.
+ */
+
+public class GameReplayer {
+
+   private final CheckersData board = new CheckersData();
+   private final int[] legal = new int[CheckersData.MAX_MOVES];
+
+   long games;
+   long moves;
+   long illegalGames;
+
+
+   /**
+    * Replay one game.  Returns -1 if every move is legal, or else the
+    * index of the first move that is not.  The board is left in the
+    * position reached.
+    */
+   int replay(GameRecord record) {
+      record.setUp(board);
+      int player = record.firstPlayer;
+      int chainFrom = -1;   // the square a jump chain must go on from, or -1
+      games++;
+      for (int i = 0; i < record.moveCount; i++) {
+         int move = record.moves[i];
+         int count = chainFrom < 0 ? board.generateMoves(player, legal) : board.generateJumpsFrom(player, chainFrom, legal);
+         if (!contains(count, move)) {
+            illegalGames++;
+            return i;
+         }
+         int from = CheckersMove.fromSquare(move);
+         int to = CheckersMove.toSquare(move);
+         board.doMove(CheckersData.rowOf(from), CheckersData.colOf(from), CheckersData.rowOf(to), CheckersData.colOf(to));
+         moves++;
+         if (CheckersMove.isPackedJump(move) && board.generateJumpsFrom(player, to, legal) > 0)
+            chainFrom = to;
+         else {
+            chainFrom = -1;
+            player = CheckersData.opponent(player);
+         }
+      }
+      return -1;
+   }
+
+
+   private boolean contains(int count, int move) {
+      for (int i = 0; i < count; i++)
+         if (legal[i] == move)
+            return true;
+      return false;
+   }
+
+
+   /**
+    * Command line:  GameReplayer file
+    * Replays every game in a file written by GameRecordWriter, and prints
+    * how many were legal and how fast they were read and checked.
+    */
+   public static void main(String[] args) throws IOException {
+      if (args.length < 1) {
+         System.out.println("Usage: GameReplayer file");
+         return;
+      }
+      Path path = Paths.get(args[0]);
+      GameReplayer replayer = new GameReplayer();
+      GameRecord record = new GameRecord();
+      long start = System.nanoTime();
+      try (GameRecordReader in = GameRecordReader.open(path)) {
+         while (in.read(record)) {
+            int bad = replayer.replay(record);
+            if (bad >= 0 && replayer.illegalGames <= 10)
+               System.out.println("game " + (in.gamesRead() - 1) + ": illegal move " + (bad + 1)
+                     + " " + new CheckersMove(record.moves[bad]));
+         }
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf("%d games, %d moves, %d with illegal moves, in %.2f s: %.0f games/sec, %.0f moves/sec%n",
+            replayer.games, replayer.moves, replayer.illegalGames, seconds,
+            replayer.games / seconds, replayer.moves / seconds);
+   }
+}
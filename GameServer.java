@@ -0,0 +1,230 @@
+package checkers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class hosts checkers games over TCP without any user interface.
+ * Every connection plays its own GameSession, and is served by its own
+ * thread: a virtual thread when the JVM has them (Java 21 and later), so
+ * that tens of thousands of games cost little more than their sessions.
+ *
+ * The protocol is one line per request and one line per reply.  Squares
+ * are numbered 1 to 32 as in CheckersMove.toString(), and a position is
+ * written as 32 characters as in CheckersData.positionString().
+ *
+ *    NEW           start a new game; replies OK and the state
+ *    BOARD         replies OK and the state
+ *    MOVES         replies MOVES followed by the legal moves, e.g. MOVES 21-17 22-17
+ *    MOVE 22-17    make a move; replies OK and the state, or ERROR
+ *    STATS         replies STATS with the server's counters and move latency
+ *    QUIT          replies BYE and closes the connection
+ *
+ * The state is the player to move (RED or BLACK), or OVER and the winner
+ * once the game has ended, followed by the position.
+ */
+
+public class GameServer {
+
+   static final int DEFAULT_PORT = 7878;
+
+   private final int port;
+   private final ExecutorService connections = newThreadPerTaskExecutor();
+
+   private final AtomicInteger activeGames = new AtomicInteger();
+   private final LongAdder gamesStarted = new LongAdder();    // NEW requests
+   private final LongAdder gamesFinished = new LongAdder();
+   private final LongAdder movesMade = new LongAdder();
+   private final LatencyHistogram moveLatency = new LatencyHistogram();   // time to handle a MOVE request
+
+   private volatile ServerSocket serverSocket;
+
+
+   GameServer(int port) {
+      this.port = port;
+   }
+
+
+   /**
+    * An executor that runs each task on a new virtual thread, or on a
+    * cached pool of ordinary threads if virtual threads are not available.
+    */
+   static ExecutorService newThreadPerTaskExecutor() {
+      try {
+         return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      }
+      catch (ReflectiveOperationException e) {
+         return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+         });
+      }
+   }
+
+
+   /**
+    * Accept connections until close() is called.
+    */
+   void run() throws IOException {
+      try (ServerSocket server = new ServerSocket(port, 4096)) {
+         serverSocket = server;
+         while (!server.isClosed()) {
+            Socket socket;
+            try {
+               socket = server.accept();
+            }
+            catch (IOException e) {
+               if (server.isClosed())
+                  break;
+               throw e;
+            }
+            connections.execute(() -> serve(socket));
+         }
+      }
+      finally {
+         connections.shutdownNow();
+      }
+   }
+
+
+   void close() throws IOException {
+      ServerSocket server = serverSocket;
+      if (server != null)
+         server.close();
+   }
+
+
+   /**
+    * Play one game, or a series of games, with one client.
+    */
+   private void serve(Socket socket) {
+      GameSession game = new GameSession();
+      activeGames.incrementAndGet();
+      try (Socket s = socket;
+           BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+           PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII))) {
+         s.setTcpNoDelay(true);
+         String line;
+         while ((line = in.readLine()) != null) {
+            String reply = handle(game, line.trim());
+            out.println(reply);
+            out.flush();
+            if (reply.equals("BYE"))
+               break;
+         }
+      }
+      catch (IOException e) {
+         // the client went away; nothing to clean up but the counters
+      }
+      finally {
+         activeGames.decrementAndGet();
+      }
+   }
+
+
+   /**
+    * Carry out one request and return the reply.
+    */
+   String handle(GameSession game, String request) {
+      String command = request;
+      String argument = "";
+      int space = request.indexOf(' ');
+      if (space > 0) {
+         command = request.substring(0, space);
+         argument = request.substring(space + 1).trim();
+      }
+      switch (command.toUpperCase()) {
+      case "NEW":
+         game.newGame();
+         gamesStarted.increment();
+         return "OK " + state(game);
+      case "BOARD":
+         return "OK " + state(game);
+      case "MOVES":
+         StringBuilder moves = new StringBuilder("MOVES");
+         if (game.validMoves != null)
+            for (CheckersMove move : game.validMoves)
+               moves.append(' ').append(move);
+         return moves.toString();
+      case "MOVE":
+         return move(game, argument);
+      case "STATS":
+         return "STATS " + stats();
+      case "QUIT":
+         return "BYE";
+      default:
+         return "ERROR unknown command " + command;
+      }
+   }
+
+
+   private String move(GameSession game, String argument) {
+      long start = System.nanoTime();
+      CheckersMove move = CheckersMove.parse(argument);
+      if (move == null)
+         return "ERROR not a move: " + argument;
+      CheckersMove legal = game.findMove(move.r1, move.c1, move.r2, move.c2);
+      if (legal == null)
+         return "ERROR illegal move " + argument;
+      game.makeMove(legal);
+      movesMade.increment();
+      if (!game.gameInProgress)
+         gamesFinished.increment();
+      String reply = "OK " + state(game);
+      moveLatency.record(System.nanoTime() - start);
+      return reply;
+   }
+
+
+   static String state(GameSession game) {
+      String turn;
+      if (!game.gameInProgress)
+         turn = "OVER " + (game.winner == CheckersData.RED ? "RED" : "BLACK");
+      else
+         turn = game.currentPlayer == CheckersData.RED ? "RED" : "BLACK";
+      return turn + " " + game.board.positionString();
+   }
+
+
+   String stats() {
+      return "active=" + activeGames.get() + " started=" + gamesStarted.sum() + " finished=" + gamesFinished.sum()
+            + " moves=" + movesMade.sum() + " latency: " + moveLatency;
+   }
+
+
+   /**
+    * Command line:  GameServer [port]
+    * Serves games until killed, printing the counters every ten seconds.
+    */
+   public static void main(String[] args) throws IOException {
+      int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+      EngineMetrics.install();
+      GameServer server = new GameServer(port);
+      Thread reporter = new Thread(() -> {
+         try {
+            while (true) {
+               Thread.sleep(10000);
+               System.out.println(server.stats());
+            }
+         }
+         catch (InterruptedException e) {
+            // stop reporting
+         }
+      }, "server-stats");
+      reporter.setDaemon(true);
+      reporter.start();
+      System.out.println("Checkers server listening on port " + port);
+      server.run();
+   }
+}
@@ -0,0 +1,131 @@
+package checkers;
+
+/**
+ * This class holds the state of one game and the rules for taking turns,
+ * without any user interface: whose turn it is, which moves are legal,
+ * when a player must continue jumping, and when the game is over.
+ * The Swing board and the game server both play their games through it.
+ */
+
+public class GameSession {
+
+   CheckersData board;          // the pieces on the board
+
+   int currentPlayer;           // RED or BLACK, the player whose turn it is
+
+   CheckersMove[] validMoves;   // the legal moves for the current player, null when there are none
+
+   boolean gameInProgress;      // false once a player has no moves left
+
+   boolean continuingJump;      // the current player has jumped and must jump again with the same piece
+
+   int winner;                  // RED or BLACK once the game is over, else EMPTY
+
+   int moveCount;               // moves made in this game, counting each jump of a chain
+
+   String message;              // describes the state of the game to the players
+
+
+   GameSession() {
+      board = new CheckersData();
+      newGame();
+   }
+
+
+   /**
+    * Set up the pieces and give RED the first move.
+    */
+   void newGame() {
+      board.setUpGame();
+      currentPlayer = CheckersData.RED;
+      validMoves = board.getValidMoves(CheckersData.RED);
+      gameInProgress = true;
+      continuingJump = false;
+      winner = CheckersData.EMPTY;
+      moveCount = 0;
+      message = "Red:  Make your move.";
+   }
+
+
+   /**
+    * Start a game from a position given in the format of
+    * CheckersData.setUpPosition(), with the given player to move.
+    */
+   void startFrom(String position, int player) {
+      newGame();
+      board.setUpPosition(position);
+      currentPlayer = player;
+      validMoves = board.getValidMoves(player);
+      String name = player == CheckersData.RED ? "RED" : "BLACK";
+      if (validMoves == null) {
+         gameInProgress = false;
+         winner = CheckersData.opponent(player);
+         message = name + " has no moves.";
+      }
+      else
+         message = name + ":  Make your move.";
+   }
+
+
+   /**
+    * Return the legal move from (r1,c1) to (r2,c2), or null if there is none.
+    */
+   CheckersMove findMove(int r1, int c1, int r2, int c2) {
+      if (validMoves == null)
+         return null;
+      for (int i = 0; i < validMoves.length; i++)
+         if (validMoves[i].r1 == r1 && validMoves[i].c1 == c1
+               && validMoves[i].r2 == r2 && validMoves[i].c2 == c2)
+            return validMoves[i];
+      return null;
+   }
+
+
+   /**
+    * Make a move for the current player, and then either let the player
+    * continue jumping or pass the turn to the other player.  If the other
+    * player has no moves, the game is over.
+    */
+   void makeMove(CheckersMove move) {
+      if (findMove(move.r1, move.c1, move.r2, move.c2) == null)
+         throw new IllegalArgumentException("Not a legal move: " + move);
+
+      boolean metrics = EngineMetrics.enabled;
+      long start = metrics ? System.nanoTime() : 0;
+      board.doMakeMove(move);
+      moveCount++;
+      long applied = metrics ? System.nanoTime() : 0;
+
+      if (move.isJump()) {
+         validMoves = board.getValidJumpsFrom(currentPlayer, move.r2, move.c2);
+         if (validMoves != null) {
+            if (metrics) {
+               EngineMetrics.INSTANCE.applied(applied - start, System.nanoTime() - applied);
+               EngineMetrics.INSTANCE.chainContinued();
+            }
+            continuingJump = true;
+            if (currentPlayer == CheckersData.RED)
+               message = "RED:  You must continue jumping.";
+            else
+               message = "BLACK:  You must continue jumping.";
+            return;
+         }
+      }
+      continuingJump = false;
+
+      currentPlayer = CheckersData.opponent(currentPlayer);
+      validMoves = board.getValidMoves(currentPlayer);
+      if (metrics)
+         EngineMetrics.INSTANCE.applied(applied - start, System.nanoTime() - applied);
+      String name = currentPlayer == CheckersData.RED ? "RED" : "BLACK";
+      if (validMoves == null) {
+         gameInProgress = false;
+         winner = CheckersData.opponent(currentPlayer);
+         message = name + " has no moves.  " + (winner == CheckersData.RED ? "RED" : "BLACK") + " wins.";
+      }
+      else if (validMoves[0].isJump())
+         message = name + ":  Make your move.  You must jump.";
+      else
+         message = name + ":  Make your move.";
+   }
+}
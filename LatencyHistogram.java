@@ -0,0 +1,106 @@
+package checkers;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class records how long something takes, for reporting percentiles.
+ * Times in nanoseconds are counted in buckets whose width grows with the
+ * time, four buckets for every power of two, so a percentile is accurate
+ * to within about 20%.  Counting is done with LongAdders, so many threads
+ * can record at once without contending.
+ */
+
+public class LatencyHistogram {
+
+   private static final int SUB_BUCKETS = 4;
+   private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+   private final LongAdder[] counts = new LongAdder[BUCKETS];
+   private final LongAdder total = new LongAdder();
+   private final LongAdder sum = new LongAdder();
+
+
+   LatencyHistogram() {
+      for (int i = 0; i < BUCKETS; i++)
+         counts[i] = new LongAdder();
+   }
+
+
+   void record(long nanos) {
+      counts[bucket(Math.max(0, nanos))].increment();
+      total.increment();
+      sum.add(nanos);
+   }
+
+
+   /**
+    * The bucket of a time: the position of its highest bit, and the next
+    * two bits below it.
+    */
+   private static int bucket(long nanos) {
+      if (nanos < SUB_BUCKETS)
+         return (int) nanos;
+      int high = 63 - Long.numberOfLeadingZeros(nanos);
+      int sub = (int) (nanos >>> (high - 2)) & (SUB_BUCKETS - 1);
+      return (high - 1) * SUB_BUCKETS + sub;
+   }
+
+
+   /**
+    * The largest time that falls into a bucket.
+    */
+   private static long bucketLimit(int bucket) {
+      if (bucket < SUB_BUCKETS)
+         return bucket;
+      int high = bucket / SUB_BUCKETS + 1;
+      int sub = bucket % SUB_BUCKETS;
+      return ((long) (SUB_BUCKETS + sub + 1) << (high - 2)) - 1;
+   }
+
+
+   long count() {
+      return total.sum();
+   }
+
+
+   long meanNanos() {
+      long n = total.sum();
+      return n == 0 ? 0 : sum.sum() / n;
+   }
+
+
+   /**
+    * The time below which the given fraction (0 to 1) of the recorded
+    * times fall.
+    */
+   long percentileNanos(double fraction) {
+      long n = total.sum();
+      if (n == 0)
+         return 0;
+      long wanted = (long) Math.ceil(fraction * n);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+         seen += counts[i].sum();
+         if (seen >= Math.max(1, wanted))
+            return bucketLimit(i);
+      }
+      return bucketLimit(BUCKETS - 1);
+   }
+
+
+   void reset() {
+      for (int i = 0; i < BUCKETS; i++)
+         counts[i].reset();
+      total.reset();
+      sum.reset();
+   }
+
+
+   /**
+    * The count, mean, median and 99th percentile in microseconds.
+    */
+   public String toString() {
+      return String.format("n=%d mean=%.1fus p50=%.1fus p99=%.1fus", count(), meanNanos() / 1e3,
+            percentileNanos(0.50) / 1e3, percentileNanos(0.99) / 1e3);
+   }
+}
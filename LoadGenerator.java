@@ -0,0 +1,129 @@
+package checkers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class puts load on a GameServer: it opens many connections at
+ * once, and on each one plays random legal moves, game after game, for a
+ * fixed time.  It reports games and moves per second and the round-trip
+ * latency of MOVE requests as the client sees it, followed by the
+ * server's own STATS line.
+ */
+
+public class LoadGenerator {
+
+   private final String host;
+   private final int port;
+
+   private final LatencyHistogram roundTrip = new LatencyHistogram();
+   private final LongAdder games = new LongAdder();
+   private final LongAdder moves = new LongAdder();
+   private final LongAdder failures = new LongAdder();
+
+
+   LoadGenerator(String host, int port) {
+      this.host = host;
+      this.port = port;
+   }
+
+
+   /**
+    * Run the given number of connections for the given number of seconds.
+    */
+   void run(int connections, int seconds) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + seconds * 1000L;
+      ExecutorService clients = GameServer.newThreadPerTaskExecutor();
+      for (int i = 0; i < connections; i++) {
+         long seed = i;
+         clients.execute(() -> play(seed, deadline));
+      }
+      clients.shutdown();
+      clients.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+   }
+
+
+   /**
+    * Play random games on one connection until the deadline.  Each game
+    * starts with NEW, so the server counts every game it is asked to play
+    * once; the game a connection is playing at the deadline is started but
+    * not counted here as played.  A connection that fails, or that the
+    * server answers wrongly, is counted as a failure.
+    */
+   private void play(long seed, long deadline) {
+      Random random = new Random(seed);
+      try (Socket socket = new Socket(host, port);
+           BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+           PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII))) {
+         socket.setTcpNoDelay(true);
+         while (System.currentTimeMillis() < deadline) {
+            String reply = request(in, out, "NEW");
+            while (!reply.startsWith("OK OVER") && System.currentTimeMillis() < deadline) {
+               String[] legal = request(in, out, "MOVES").split(" ");
+               if (legal.length < 2)
+                  throw new IllegalStateException("No legal moves in a game that is not over");
+               String move = legal[1 + random.nextInt(legal.length - 1)];
+               long start = System.nanoTime();
+               reply = request(in, out, "MOVE " + move);
+               roundTrip.record(System.nanoTime() - start);
+               moves.increment();
+               if (reply.startsWith("ERROR"))
+                  throw new IllegalStateException("Server refused " + move + ": " + reply);
+            }
+            if (reply.startsWith("OK OVER"))
+               games.increment();
+         }
+         request(in, out, "QUIT");
+      }
+      catch (IOException | IllegalStateException e) {
+         failures.increment();
+      }
+   }
+
+
+   private static String request(BufferedReader in, PrintWriter out, String request) throws IOException {
+      out.println(request);
+      out.flush();
+      String reply = in.readLine();
+      if (reply == null)
+         throw new IOException("The server closed the connection");
+      return reply;
+   }
+
+
+   /**
+    * Command line:  LoadGenerator [connections] [seconds] [host] [port]
+    * Defaults to 1000 connections for 30 seconds against localhost.
+    */
+   public static void main(String[] args) throws Exception {
+      int connections = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+      int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+      String host = args.length > 2 ? args[2] : "localhost";
+      int port = args.length > 3 ? Integer.parseInt(args[3]) : GameServer.DEFAULT_PORT;
+
+      LoadGenerator load = new LoadGenerator(host, port);
+      long start = System.currentTimeMillis();
+      load.run(connections, seconds);
+      double elapsed = (System.currentTimeMillis() - start) / 1000.0;
+
+      System.out.printf("%d connections, %.1f s: %d games (%.1f/s), %d moves (%.0f/s), %d failed connections%n",
+            connections, elapsed, load.games.sum(), load.games.sum() / elapsed,
+            load.moves.sum(), load.moves.sum() / elapsed, load.failures.sum());
+      System.out.println("client round trip: " + load.roundTrip);
+      try (Socket socket = new Socket(host, port);
+           BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+           PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII))) {
+         System.out.println("server: " + request(in, out, "STATS"));
+         request(in, out, "QUIT");
+      }
+   }
+}
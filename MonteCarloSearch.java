@@ -0,0 +1,643 @@
+package checkers;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class chooses moves by Monte Carlo tree search, as an alternative
+ * to the alpha-beta search of SearchEngine.  It plays many random games
+ * ("playouts") from the position, and grows a tree of the turns that have
+ * done best in them, choosing which turn to try next by UCT.  The move
+ * chosen is the one tried most often.
+ *
+ * Below the root, the tree is made of whole turns from
+ * CheckersData.generateTurns(), so a jump chain is one edge and forced
+ * jumps are always taken.  Playouts use the same turns, picked at random
+ * except that a turn that crowns a man is preferred half the time.  A
+ * playout that lasts MAX_TURNS turns is a draw.
+ *
+ * Nodes are not objects: a node is an index into a few primitive arrays,
+ * and the children of a node are a block of consecutive indexes.  The
+ * arrays have a fixed size, so memory stays bounded; when they are full
+ * the tree stops growing and playouts go on from its leaves.  A search
+ * that starts in a position the last search reached keeps that part of
+ * the old tree and copies it to the front of a second set of arrays, so
+ * all the other nodes are free again.
+ *
+ * All threads work on the one tree.  Counts are added atomically, a node
+ * is expanded by the one thread that claims it, and each node on the path
+ * of a playout carries a virtual loss until the playout is counted, which
+ * steers the other threads elsewhere.
+ */
+
+public class MonteCarloSearch implements MoveSearch {
+
+   static final double EXPLORATION = 1.0;   // the UCT constant, for results between 0 and 1
+   static final int VIRTUAL_LOSS = 3;       // visits added to each node on a path while its playout runs
+   static final int MAX_TURNS = 150;        // turns in a playout before it is called a draw
+
+   /* firstChild of a node that has no children block. */
+
+   static final int UNEXPANDED = -1;
+   static final int EXPANDING = -2;   // claimed by a thread that is expanding it
+   static final int TERMINAL = -3;    // the player to move has no moves
+   static final int FULL = -4;        // there was no room for its children
+
+   private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+   /**
+    * A set of node arrays.  Scores count two for a win and one for a draw,
+    * for the player who made the node's turn.
+    */
+   private static final class Tree {
+      final long[] turn;
+      final int[] firstChild;
+      final int[] childCount;
+      final int[] visits;
+      final int[] score;
+      final AtomicInteger size = new AtomicInteger();
+
+      Tree(int capacity) {
+         turn = new long[capacity];
+         firstChild = new int[capacity];
+         childCount = new int[capacity];
+         visits = new int[capacity];
+         score = new int[capacity];
+      }
+
+      /**
+       * Start again with only a root node.
+       */
+      void reset() {
+         size.set(1);
+         clear(0);
+      }
+
+      void clear(int node) {
+         turn[node] = 0;
+         firstChild[node] = UNEXPANDED;
+         childCount[node] = 0;
+         visits[node] = 0;
+         score[node] = 0;
+      }
+   }
+
+   /**
+    * A position as masks, which playouts change as they go.
+    */
+   private static final class State {
+      int red, black, kings, player;
+
+      void set(int red, int black, int kings, int player) {
+         this.red = red;
+         this.black = black;
+         this.kings = kings;
+         this.player = player;
+      }
+
+      /**
+       * Make a turn from generateTurns() and pass the move to the opponent.
+       */
+      void apply(long turn) {
+         int fromBit = 1 << CheckersMove.turnFrom(turn);
+         int toBit = 1 << CheckersMove.turnTo(turn);
+         int captured = CheckersMove.turnCaptured(turn);
+         kings &= ~captured;
+         if ((kings & fromBit) != 0)
+            kings = (kings & ~fromBit) | toBit;
+         if (CheckersMove.turnCrowns(turn))
+            kings |= toBit;
+         if (player == CheckersData.RED) {
+            red = (red & ~fromBit) | toBit;
+            black &= ~captured;
+            player = CheckersData.BLACK;
+         }
+         else {
+            black = (black & ~fromBit) | toBit;
+            red &= ~captured;
+            player = CheckersData.RED;
+         }
+      }
+   }
+
+   private final int threads;
+   private final int capacity;
+   private Tree tree;
+   private Tree spare;
+   private final int[] copiedFrom;   // for copying a subtree: the old index of each new node
+   private final ExecutorService helperPool;
+
+   private volatile boolean stopped;
+   private volatile long deadline;
+   long maxPlayouts = Long.MAX_VALUE;   // stop after this many playouts, for repeatable strength
+   long seed = System.nanoTime();       // with one thread and maxPlayouts, the same seed gives the same moves
+
+   volatile SearchEngine.Progress progress;
+
+   private final State root = new State();
+   private int[] rootHops = new int[CheckersData.MAX_MOVES];   // the first jump or step of each root child's turn
+
+   private final LongAdder playouts = new LongAdder();
+   private final AtomicInteger depthReached = new AtomicInteger();
+   private long elapsedMillis;
+   private long lastPlayouts;
+   private int bestScore;
+   private int keptNodes;
+
+
+   /**
+    * Create a search with the given number of threads and a tree of at
+    * most the given number of nodes.  It takes about 52 bytes a node.
+    */
+   MonteCarloSearch(int threads, int capacity) {
+      if (threads < 1)
+         throw new IllegalArgumentException("At least one thread is needed, not " + threads);
+      this.threads = threads;
+      this.capacity = capacity;
+      tree = new Tree(capacity);
+      spare = new Tree(capacity);
+      copiedFrom = new int[capacity];
+      tree.reset();
+      helperPool = threads > 1 ? Executors.newFixedThreadPool(threads - 1, runnable -> {
+         Thread thread = new Thread(runnable, "mcts-helper");
+         thread.setDaemon(true);
+         return thread;
+      }) : null;
+   }
+
+
+   public CheckersMove findBestMove(CheckersData position, int player, CheckersMove[] legalMoves,
+         long timeBudgetMillis) {
+      long start = System.currentTimeMillis();
+      long startNanos = System.nanoTime();
+      deadline = start + timeBudgetMillis;
+      stopped = false;
+      playouts.reset();
+      depthReached.set(0);
+      bestScore = 0;
+      if (legalMoves == null || legalMoves.length == 0)
+         return null;
+      if (legalMoves.length == 1) {
+         elapsedMillis = System.currentTimeMillis() - start;
+         lastPlayouts = 0;
+         return legalMoves[0];
+      }
+
+      setRoot(position, player, legalMoves);
+      SplittableRandom seeds = new SplittableRandom(position.zobristKey ^ seed);
+      Future<?>[] helpers = new Future<?>[threads];
+      for (int i = 1; i < threads; i++) {
+         SplittableRandom random = seeds.split();
+         helpers[i] = helperPool.submit(() -> work(random, false));
+      }
+      work(seeds.split(), true);
+      stopped = true;
+      for (int i = 1; i < threads; i++) {
+         try {
+            helpers[i].get();
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         catch (ExecutionException e) {
+            throw new IllegalStateException("A playout thread failed", e.getCause());
+         }
+      }
+      elapsedMillis = System.currentTimeMillis() - start;
+      lastPlayouts = playouts.sum();
+      if (EngineMetrics.enabled)
+         EngineMetrics.INSTANCE.playedOut(lastPlayouts, System.nanoTime() - startNanos);
+      return new CheckersMove(rootHops[bestChild() - tree.firstChild[0]]);
+   }
+
+
+   /**
+    * Make the root of the tree the given position, keeping the part of the
+    * old tree below it if the last search reached it, and give the root one
+    * child for each different turn that starts with one of legalMoves.
+    */
+   private void setRoot(CheckersData position, int player, CheckersMove[] legalMoves) {
+      long[] turns = new long[CheckersData.MAX_MOVES];
+      int[] hops = new int[CheckersData.MAX_MOVES];
+      int count = rootTurns(new CheckersData(position), player, legalMoves, turns, hops);
+
+      int kept = findInTree(position.redMask, position.blackMask, position.kingMask, player);
+      root.set(position.redMask, position.blackMask, position.kingMask, player);
+      if (kept >= 0 && tree.firstChild[kept] >= 0 && sameTurns(kept, turns, count)) {
+         copySubtree(kept);
+         int first = tree.firstChild[0];
+         for (int c = 0; c < count; c++)
+            for (int i = 0; i < count; i++)
+               if (tree.turn[first + c] == turns[i])
+                  rootHops[c] = hops[i];
+      }
+      else {
+         tree.reset();
+         System.arraycopy(hops, 0, rootHops, 0, count);
+         for (int i = 0; i < count; i++) {
+            tree.clear(1 + i);
+            tree.turn[1 + i] = turns[i];
+         }
+         tree.size.set(1 + count);
+         tree.childCount[0] = count;
+         tree.firstChild[0] = 1;
+      }
+      keptNodes = tree.size.get();
+   }
+
+
+   /**
+    * Follow every legal move to the end of its jump chain, and write each
+    * different turn the player can make, with the move it starts with.
+    * When the player is in the middle of a chain, the turns are the ways
+    * to finish it.
+    */
+   private static int rootTurns(CheckersData data, int player, CheckersMove[] legalMoves, long[] turns, int[] hops) {
+      int count = 0;
+      int[] moves = new int[legalMoves.length];
+      for (int i = 0; i < legalMoves.length; i++)
+         moves[i] = legalMoves[i].toPacked();
+      for (int move : moves)
+         count = followChain(data, player, move, move, data.redMask, data.blackMask, data.kingMask, turns, hops, count);
+      return count;
+   }
+
+
+   private static int followChain(CheckersData data, int player, int firstHop, int move, int red, int black,
+         int kings, long[] turns, int[] hops, int count) {
+      int to = CheckersMove.toSquare(move);
+      data.makeMove(move);
+      int[] jumps = new int[CheckersData.MAX_MOVES];
+      int jumpCount = CheckersMove.isPackedJump(move) ? data.generateJumpsFrom(player, to, jumps) : 0;
+      if (jumpCount > 0) {
+         for (int i = 0; i < jumpCount; i++)
+            count = followChain(data, player, firstHop, jumps[i], red, black, kings, turns, hops, count);
+      }
+      else {
+         int own = player == CheckersData.RED ? red : black;
+         int from = CheckersMove.fromSquare(firstHop);
+         int captured = (red | black) & ~own & ~(data.redMask | data.blackMask);
+         boolean crowns = (kings & (1 << from)) == 0 && (data.kingMask & (1 << to)) != 0;
+         long turn = CheckersMove.packTurn(from, to, captured, crowns);
+         boolean seen = false;
+         for (int i = 0; i < count; i++)
+            seen |= turns[i] == turn;
+         if (!seen) {
+            turns[count] = turn;
+            hops[count++] = firstHop;
+         }
+      }
+      data.unmakeMove();
+      return count;
+   }
+
+
+   /**
+    * The node of the old tree, its root or one or two turns below it,
+    * that holds the given position, or -1 if there is none.
+    */
+   private int findInTree(int red, int black, int kings, int player) {
+      State state = new State();
+      state.set(root.red, root.black, root.kings, root.player);
+      if (matches(state, red, black, kings, player))
+         return 0;
+      int first = tree.firstChild[0];
+      for (int c = first; first >= 0 && c < first + tree.childCount[0]; c++) {
+         state.set(root.red, root.black, root.kings, root.player);
+         state.apply(tree.turn[c]);
+         if (matches(state, red, black, kings, player))
+            return c;
+         int grandchildren = tree.firstChild[c];
+         for (int g = grandchildren; grandchildren >= 0 && g < grandchildren + tree.childCount[c]; g++) {
+            State next = new State();
+            next.set(state.red, state.black, state.kings, state.player);
+            next.apply(tree.turn[g]);
+            if (matches(next, red, black, kings, player))
+               return g;
+         }
+      }
+      return -1;
+   }
+
+
+   private static boolean matches(State state, int red, int black, int kings, int player) {
+      return state.red == red && state.black == black && state.kings == kings && state.player == player;
+   }
+
+
+   private boolean sameTurns(int node, long[] turns, int count) {
+      if (tree.childCount[node] != count)
+         return false;
+      int first = tree.firstChild[node];
+      for (int i = 0; i < count; i++) {
+         boolean found = false;
+         for (int c = first; c < first + count; c++)
+            found |= tree.turn[c] == turns[i];
+         if (!found)
+            return false;
+      }
+      return true;
+   }
+
+
+   /**
+    * Copy the subtree below node into the spare arrays, breadth first so
+    * that every children block stays together, and make it the tree.
+    */
+   private void copySubtree(int node) {
+      Tree from = tree;
+      Tree to = spare;
+      copiedFrom[0] = node;
+      int size = 1;
+      for (int i = 0; i < size; i++) {
+         int old = copiedFrom[i];
+         to.turn[i] = i == 0 ? 0 : from.turn[old];
+         to.visits[i] = from.visits[old];
+         to.score[i] = from.score[old];
+         int first = from.firstChild[old];
+         if (first >= 0) {
+            int count = from.childCount[old];
+            for (int c = 0; c < count; c++)
+               copiedFrom[size + c] = first + c;
+            to.firstChild[i] = size;
+            to.childCount[i] = count;
+            size += count;
+         }
+         else {
+            to.firstChild[i] = first == TERMINAL ? TERMINAL : UNEXPANDED;
+            to.childCount[i] = 0;
+         }
+      }
+      to.size.set(size);
+      spare = from;
+      tree = to;
+   }
+
+
+   /**
+    * Run playouts until the search is stopped, its time is up or it has
+    * made maxPlayouts.  The main thread also reports progress.
+    */
+   private void work(SplittableRandom random, boolean main) {
+      State state = new State();
+      long[] turns = new long[CheckersData.MAX_MOVES];
+      int[] path = new int[MAX_TURNS * 2 + 2];
+      long lastReport = System.currentTimeMillis();
+      for (long n = 0; !stopped; n++) {
+         playout(state, turns, path, random);
+         playouts.increment();
+         if ((n & 63) == 0) {
+            long now = System.currentTimeMillis();
+            if (now >= deadline || playouts.sum() >= maxPlayouts)
+               stopped = true;
+            else if (main && now - lastReport >= 250) {
+               lastReport = now;
+               report();
+            }
+         }
+      }
+   }
+
+
+   private void report() {
+      SearchEngine.Progress listener = progress;
+      if (listener != null) {
+         int best = bestChild();
+         listener.depthCompleted(new CheckersMove(rootHops[best - tree.firstChild[0]]), depthReached.get(),
+               bestScore);
+      }
+   }
+
+
+   /**
+    * One iteration: go down the tree by UCT to a leaf, give the leaf its
+    * children if a playout has been through it before, play a random game
+    * from there and count its result on the path.
+    */
+   private void playout(State state, long[] turns, int[] path, SplittableRandom random) {
+      Tree t = tree;
+      state.set(root.red, root.black, root.kings, root.player);
+      int node = 0;
+      int depth = 0;
+      path[0] = 0;
+      INTS.getAndAdd(t.visits, 0, VIRTUAL_LOSS);
+      int winner;
+      while (true) {
+         int first = (int) INTS.getAcquire(t.firstChild, node);
+         if (first == TERMINAL) {
+            winner = CheckersData.opponent(state.player);
+            break;
+         }
+         boolean visitedBefore = (int) INTS.getOpaque(t.visits, node) > VIRTUAL_LOSS;   // besides this playout
+         if (first == UNEXPANDED && visitedBefore && INTS.compareAndSet(t.firstChild, node, UNEXPANDED, EXPANDING))
+            first = expand(t, node, state, turns);
+         if (first < 0 || depth == path.length - 1) {
+            winner = first == TERMINAL ? CheckersData.opponent(state.player) : rollout(state, turns, random);
+            break;
+         }
+         node = select(t, node, first, random);
+         state.apply(t.turn[node]);
+         path[++depth] = node;
+         INTS.getAndAdd(t.visits, node, VIRTUAL_LOSS);
+      }
+      if (depth > depthReached.get())
+         depthReached.set(depth);
+
+      int mover = CheckersData.opponent(root.player);   // who made the turn into the root
+      for (int d = 0; d <= depth; d++) {
+         int points = winner == CheckersData.EMPTY ? 1 : winner == mover ? 2 : 0;
+         INTS.getAndAdd(t.score, path[d], points);
+         INTS.getAndAdd(t.visits, path[d], 1 - VIRTUAL_LOSS);
+         mover = CheckersData.opponent(mover);
+      }
+   }
+
+
+   /**
+    * Give a node claimed by this thread its children, one for each turn
+    * from its position, and return the first child, or TERMINAL or FULL.
+    */
+   private int expand(Tree t, int node, State state, long[] turns) {
+      int count = CheckersData.generateTurns(state.red, state.black, state.kings, state.player, turns);
+      if (count == 0) {
+         INTS.setRelease(t.firstChild, node, TERMINAL);
+         return TERMINAL;
+      }
+      int first = t.size.getAndAdd(count);
+      if (first + count > capacity) {
+         INTS.setRelease(t.firstChild, node, FULL);
+         return FULL;
+      }
+      for (int i = 0; i < count; i++) {
+         t.clear(first + i);
+         t.turn[first + i] = turns[i];
+      }
+      t.childCount[node] = count;
+      INTS.setRelease(t.firstChild, node, first);
+      return first;
+   }
+
+
+   /**
+    * The child with the best UCT value: its mean result for the player
+    * who chooses it, plus a bonus for being tried less than its brothers.
+    * Children not tried yet come first, in random order.
+    */
+   private int select(Tree t, int node, int first, SplittableRandom random) {
+      int count = t.childCount[node];
+      double logVisits = Math.log(Math.max(1, (int) INTS.getOpaque(t.visits, node)));
+      int best = first;
+      double bestValue = Double.NEGATIVE_INFINITY;
+      int offset = random.nextInt(count);
+      for (int i = 0; i < count; i++) {
+         int child = first + (i + offset) % count;
+         int visits = (int) INTS.getOpaque(t.visits, child);
+         if (visits == 0)
+            return child;
+         double value = (int) INTS.getOpaque(t.score, child) / (2.0 * visits)
+               + EXPLORATION * Math.sqrt(logVisits / visits);
+         if (value > bestValue) {
+            bestValue = value;
+            best = child;
+         }
+      }
+      return best;
+   }
+
+
+   /**
+    * Play random turns from state until one side cannot move or MAX_TURNS
+    * have been played, and return the winner, or EMPTY for a draw.
+    */
+   private static int rollout(State state, long[] turns, SplittableRandom random) {
+      for (int n = 0; n < MAX_TURNS; n++) {
+         int count = CheckersData.generateTurns(state.red, state.black, state.kings, state.player, turns);
+         if (count == 0)
+            return CheckersData.opponent(state.player);
+         int choice = random.nextInt(count);
+         if (random.nextBoolean()) {
+            for (int i = 0; i < count; i++)
+               if (CheckersMove.turnCrowns(turns[i])) {
+                  choice = i;
+                  break;
+               }
+         }
+         state.apply(turns[choice]);
+      }
+      return CheckersData.EMPTY;
+   }
+
+
+   /**
+    * The root child tried most often.
+    */
+   private int bestChild() {
+      Tree t = tree;
+      int first = t.firstChild[0];
+      int best = first;
+      for (int c = first; c < first + t.childCount[0]; c++)
+         if (t.visits[c] > t.visits[best])
+            best = c;
+      int visits = Math.max(1, t.visits[best]);
+      bestScore = (int) Math.round((t.score[best] / (double) visits - 1) * 1000);
+      return best;
+   }
+
+
+   public void stop() {
+      stopped = true;
+   }
+
+
+   public void setProgress(SearchEngine.Progress progress) {
+      this.progress = progress;
+   }
+
+
+   public long nodesSoFar() {
+      return playouts.sum();
+   }
+
+
+   public void shutdown() {
+      if (helperPool != null)
+         helperPool.shutdownNow();
+   }
+
+
+   /**
+    * Statistics about the last search.  The depth is the longest path in
+    * the tree that a playout went down, and the score is the mean result
+    * of the chosen move, from -1000 for always lost to 1000 for always won.
+    */
+   public int engineId() {
+      return MONTE_CARLO;
+   }
+
+
+   public int getDepthReached() {
+      return depthReached.get();
+   }
+
+   public int getBestScore() {
+      return bestScore;
+   }
+
+   public long getNodesPerSecond() {
+      return lastPlayouts * 1000 / Math.max(1, elapsedMillis);
+   }
+
+   long getPlayouts() {
+      return lastPlayouts;
+   }
+
+   long getElapsedMillis() {
+      return elapsedMillis;
+   }
+
+   int getTreeSize() {
+      return Math.min(tree.size.get(), capacity);
+   }
+
+   int getKeptNodes() {
+      return keptNodes;
+   }
+
+
+   /**
+    * Speed report.  Command line:  MonteCarloSearch [seconds] [maxThreads] [position]
+    * Searches the position (by default the start of the game, RED to move)
+    * for the given time with 1, 2, 4, 8 ... threads, up to maxThreads, and
+    * prints the playouts per second and the speedup over one thread.
+    */
+   public static void main(String[] args) {
+      double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 5;
+      int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+      CheckersData data = new CheckersData();
+      if (args.length > 2)
+         data.setUpPosition(args[2]);
+      CheckersMove[] moves = data.getValidMoves(CheckersData.RED);
+
+      long oneThread = 0;
+      System.out.printf("%8s %12s %14s %9s %10s %7s  %s%n", "threads", "playouts", "playouts/sec", "speedup",
+            "nodes", "depth", "move");
+      for (int threads = 1; threads <= maxThreads; threads *= 2) {
+         MonteCarloSearch search = new MonteCarloSearch(threads, 1 << 20);
+         CheckersMove best = search.findBestMove(data, CheckersData.RED, moves, (long) (seconds * 1000));
+         search.shutdown();
+         long rate = search.getNodesPerSecond();
+         if (threads == 1)
+            oneThread = Math.max(1, rate);
+         System.out.printf("%8d %12d %14d %9.2f %10d %7d  %s%n", threads, search.getPlayouts(), rate,
+               (double) rate / oneThread, search.getTreeSize(), search.getDepthReached(),
+               Perft.squareName(best.r1, best.c1) + "-" + Perft.squareName(best.r2, best.c2));
+      }
+   }
+}
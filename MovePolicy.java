@@ -0,0 +1,164 @@
+package checkers;
+
+import java.util.Random;
+
+/**
+ * A way of choosing moves in a game without a human player.  A policy is
+ * asked for one move at a time, and is asked again while the same player
+ * continues a jump chain.  Policies keep state and are used by one thread
+ * at a time.
+ */
+
+public interface MovePolicy {
+
+   /**
+    * Choose one of game.validMoves for game.currentPlayer.
+    */
+   CheckersMove chooseMove(GameSession game);
+
+
+   /**
+    * Create a policy from a description:  "random", "greedy", "search:d"
+    * for a search to depth d, "mcts:n" for a Monte Carlo tree search of n
+    * playouts, or "book:file:policy" for moves from the
+    * opening book in file while the game is in it, and then the policy
+    * described by the rest.  The seed makes random choices repeatable.
+    */
+   static MovePolicy create(String description, long seed) {
+      String[] parts = description.split(":");
+      switch (parts[0].toLowerCase()) {
+      case "book":
+         if (parts.length < 3)
+            throw new IllegalArgumentException("Give a book file and a policy: " + description);
+         try {
+            return new BookPolicy(OpeningBook.open(java.nio.file.Paths.get(parts[1])),
+                  create(description.substring(parts[0].length() + parts[1].length() + 2), seed), seed);
+         }
+         catch (java.io.IOException e) {
+            throw new IllegalArgumentException("Cannot open opening book " + parts[1], e);
+         }
+      case "random":
+         return new RandomPolicy(seed);
+      case "greedy":
+         return new GreedyPolicy(seed);
+      case "search":
+         return new SearchPolicy(parts.length > 1 ? Integer.parseInt(parts[1]) : 6);
+      case "mcts":
+         return new MonteCarloPolicy(parts.length > 1 ? Long.parseLong(parts[1]) : 10000, seed);
+      default:
+         throw new IllegalArgumentException("Unknown policy " + description);
+      }
+   }
+
+
+   /**
+    * Picks any legal move, all equally likely.
+    */
+   class RandomPolicy implements MovePolicy {
+      private final Random random;
+
+      RandomPolicy(long seed) {
+         random = new Random(seed);
+      }
+
+      public CheckersMove chooseMove(GameSession game) {
+         return game.validMoves[random.nextInt(game.validMoves.length)];
+      }
+   }
+
+
+   /**
+    * Picks the move after which the Evaluator likes the position best,
+    * breaking ties at random.
+    */
+   class GreedyPolicy implements MovePolicy {
+      private final Random random;
+
+      GreedyPolicy(long seed) {
+         random = new Random(seed);
+      }
+
+      public CheckersMove chooseMove(GameSession game) {
+         CheckersData data = game.board;
+         CheckersMove best = null;
+         int bestScore = Integer.MIN_VALUE;
+         int ties = 0;
+         for (CheckersMove move : game.validMoves) {
+            data.makeMove(move);
+            int score = Evaluator.evaluate(data, game.currentPlayer);
+            data.unmakeMove();
+            if (score > bestScore) {
+               best = move;
+               bestScore = score;
+               ties = 1;
+            }
+            else if (score == bestScore && random.nextInt(++ties) == 0)
+               best = move;
+         }
+         return best;
+      }
+   }
+
+
+   /**
+    * Plays a move from an opening book at the start of each turn while
+    * the position is in the book, chosen at random as often as it was
+    * played, and leaves everything else to another policy.
+    */
+   class BookPolicy implements MovePolicy {
+      private final OpeningBook book;
+      private final MovePolicy fallback;
+      private final Random random;
+
+      BookPolicy(OpeningBook book, MovePolicy fallback, long seed) {
+         this.book = book;
+         this.fallback = fallback;
+         random = new Random(seed);
+      }
+
+      public CheckersMove chooseMove(GameSession game) {
+         if (!game.continuingJump) {
+            CheckersMove move = book.choose(game.board, game.currentPlayer, game.validMoves, 1, random);
+            if (move != null)
+               return move;
+         }
+         return fallback.chooseMove(game);
+      }
+   }
+
+
+   /**
+    * Picks the move found by a SearchEngine searching to a fixed depth.
+    */
+   class SearchPolicy implements MovePolicy {
+      private final TranspositionTable table = new TranspositionTable(8);
+      private final SearchEngine engine = new SearchEngine(table);
+
+      SearchPolicy(int depth) {
+         engine.maxDepth = depth;
+      }
+
+      public CheckersMove chooseMove(GameSession game) {
+         table.newSearch();
+         return engine.findBestMove(game.board, game.currentPlayer, game.validMoves, Long.MAX_VALUE / 2);
+      }
+   }
+
+
+   /**
+    * Picks the move found by a one-thread MonteCarloSearch making a fixed
+    * number of playouts.  The tree is kept from move to move.
+    */
+   class MonteCarloPolicy implements MovePolicy {
+      private final MonteCarloSearch search = new MonteCarloSearch(1, 1 << 18);
+
+      MonteCarloPolicy(long playouts, long seed) {
+         search.maxPlayouts = playouts;
+         search.seed = seed;
+      }
+
+      public CheckersMove chooseMove(GameSession game) {
+         return search.findBestMove(game.board, game.currentPlayer, game.validMoves, Long.MAX_VALUE / 2);
+      }
+   }
+}
@@ -0,0 +1,55 @@
+package checkers;
+
+/**
+ * An engine that finds moves for AnalysisService and the board:
+ * ParallelSearch, which searches with alpha-beta, or MonteCarloSearch.
+ */
+
+public interface MoveSearch {
+
+   /* What engineId() returns for each kind of engine. */
+
+   int ALPHA_BETA = 1;
+   int MONTE_CARLO = 2;
+
+   /**
+    * Which kind of engine this is.  Depths and scores of different kinds
+    * mean different things, so results of one kind cannot be compared
+    * with those of another.
+    */
+   int engineId();
+
+   /**
+    * Find the best of legalMoves for player in position within about
+    * timeBudgetMillis milliseconds.  The position is not changed.
+    */
+   CheckersMove findBestMove(CheckersData position, int player, CheckersMove[] legalMoves, long timeBudgetMillis);
+
+   /**
+    * Ask a search running on another thread to return as soon as possible.
+    */
+   void stop();
+
+   /**
+    * Be told about the best move as the search improves it, or stop being
+    * told if progress is null.
+    */
+   void setProgress(SearchEngine.Progress progress);
+
+   /**
+    * The work done so far by the search that is running: nodes for an
+    * alpha-beta search, playouts for a Monte Carlo one.
+    */
+   long nodesSoFar();
+
+   int getDepthReached();
+
+   int getBestScore();
+
+   long getNodesPerSecond();
+
+   /**
+    * Stop the search's threads.  It cannot be used afterwards.
+    */
+   void shutdown();
+}
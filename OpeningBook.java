@@ -0,0 +1,325 @@
+package checkers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * An opening book: for positions near the start of games, the moves that
+ * were played in them and how those games ended.  A book is built from
+ * files written by GameRecordWriter, such as Tournament output or games
+ * imported with Pdn, and is read through a MappedByteBuffer, so probing it
+ * costs a few memory reads and opening it reads nothing.
+ *
+ * The file starts with a 16 byte header: the magic number, the version,
+ * the number of entries and the number of index bits b.  Then come
+ * 2^b + 1 ints, where int i is the number of the first entry whose key
+ * starts with the b bits i, and then the entries, sorted by key as
+ * unsigned numbers:
+ *
+ *    long     the position's key, from CheckersData.hashKey()
+ *    int      the packed move played; for a jump chain, its first jump
+ *    3 ints   the wins, draws and losses that followed for the player to move
+ *
+ * A probe takes the index bucket of the key and does a binary search in
+ * it.  Entries with the same key are sorted by number of games, most
+ * first.
+ */
+
+public class OpeningBook implements Closeable {
+
+   static final int MAGIC = 0x434B424B;   // "CKBK"
+   static final int VERSION = 1;
+   static final int HEADER_SIZE = 16;
+   static final int ENTRY_SIZE = 24;
+
+   private final FileChannel channel;
+   private final MappedByteBuffer buffer;
+   private final int entries;
+   private final int indexBits;
+   private final int entriesStart;   // byte offset of the first entry
+
+
+   private OpeningBook(FileChannel channel) throws IOException {
+      this.channel = channel;
+      if (channel.size() > Integer.MAX_VALUE)
+         throw new IOException("Opening book is too big");
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+         throw new IOException("Not an opening book");
+      if (buffer.getInt(4) != VERSION)
+         throw new IOException("Unknown opening book version " + buffer.getInt(4));
+      entries = buffer.getInt(8);
+      indexBits = buffer.getInt(12);
+      entriesStart = HEADER_SIZE + ((1 << indexBits) + 1) * 4;
+      if (indexBits < 0 || indexBits > 24 || (long) entriesStart + (long) entries * ENTRY_SIZE > buffer.capacity())
+         throw new IOException("Opening book is damaged");
+   }
+
+
+   static OpeningBook open(Path path) throws IOException {
+      return new OpeningBook(FileChannel.open(path, StandardOpenOption.READ));
+   }
+
+
+   int size() {
+      return entries;
+   }
+
+
+   /**
+    * The number of the first entry for key, or -1 if the book has none.
+    * Reads only the buffer, so any number of threads may probe at once.
+    */
+   int find(long key) {
+      int bucket = indexBits == 0 ? 0 : (int) (key >>> (64 - indexBits));
+      int low = buffer.getInt(HEADER_SIZE + bucket * 4);
+      int high = buffer.getInt(HEADER_SIZE + (bucket + 1) * 4);   // one past the last candidate
+      while (low < high) {
+         int middle = (low + high) >>> 1;
+         if (Long.compareUnsigned(key(middle), key) < 0)
+            low = middle + 1;
+         else
+            high = middle;
+      }
+      return low < entries && key(low) == key ? low : -1;
+   }
+
+
+   long key(int entry) {
+      return buffer.getLong(entriesStart + entry * ENTRY_SIZE);
+   }
+
+   int move(int entry) {
+      return buffer.getInt(entriesStart + entry * ENTRY_SIZE + 8);
+   }
+
+   int wins(int entry) {
+      return buffer.getInt(entriesStart + entry * ENTRY_SIZE + 12);
+   }
+
+   int draws(int entry) {
+      return buffer.getInt(entriesStart + entry * ENTRY_SIZE + 16);
+   }
+
+   int losses(int entry) {
+      return buffer.getInt(entriesStart + entry * ENTRY_SIZE + 20);
+   }
+
+   int games(int entry) {
+      return wins(entry) + draws(entry) + losses(entry);
+   }
+
+
+   /**
+    * Choose a book move for player, one of legal, or return null if the
+    * position is not in the book.  Without random this is the move with
+    * the best score, counting a draw as half a win, among those played at
+    * least minGames times; with random, any of them, as often as it was
+    * played.
+    */
+   CheckersMove choose(CheckersData data, int player, CheckersMove[] legal, int minGames, Random random) {
+      if (legal == null)
+         return null;
+      long key = data.hashKey(player);
+      int first = find(key);
+      if (first < 0)
+         return null;
+      CheckersMove chosen = null;
+      double bestScore = -1;
+      int total = 0;
+      for (int entry = first; entry < entries && key(entry) == key; entry++) {
+         int games = games(entry);
+         CheckersMove move = CheckersMove.findPacked(legal, move(entry));
+         if (move == null || games < minGames)
+            continue;
+         if (random != null) {
+            total += games;
+            if (random.nextInt(total) < games)
+               chosen = move;
+         }
+         else {
+            double score = (wins(entry) + draws(entry) / 2.0) / games;
+            if (score > bestScore) {
+               chosen = move;
+               bestScore = score;
+            }
+         }
+      }
+      return chosen;
+   }
+
+
+   @Override
+   public void close() throws IOException {
+      channel.close();
+   }
+
+
+   /**
+    * Collects the moves played in the first turns of games, and writes
+    * them out as a book.
+    */
+   static class Builder {
+
+      /**
+       * One move played in one position, and how the games went on.
+       */
+      private static class MoveStats {
+         final long key;
+         final int move;
+         int wins, draws, losses;
+
+         MoveStats(long key, int move) {
+            this.key = key;
+            this.move = move;
+         }
+
+         int games() {
+            return wins + draws + losses;
+         }
+      }
+
+      private final int maxTurns;
+      private final Map<Long, List<MoveStats>> positions = new HashMap<>();
+      private final CheckersData board = new CheckersData();
+      private final int[] buffer = new int[CheckersData.MAX_MOVES];
+      long games;
+
+
+      /**
+       * A builder that takes the first maxTurns turns of each game.
+       */
+      Builder(int maxTurns) {
+         this.maxTurns = maxTurns;
+      }
+
+
+      /**
+       * Add the opening of one game.  Games that were not finished count
+       * as draws.
+       */
+      void add(GameRecord record) {
+         record.setUp(board);
+         int player = record.firstPlayer;
+         int turns = 0;
+         boolean turnStart = true;
+         for (int i = 0; i < record.moveCount && turns < maxTurns; i++) {
+            int move = record.moves[i];
+            if (turnStart) {
+               count(board.hashKey(player), move, record.winner == CheckersData.EMPTY ? 0
+                     : record.winner == player ? 1 : -1);
+               turns++;
+            }
+            int from = CheckersMove.fromSquare(move);
+            int to = CheckersMove.toSquare(move);
+            board.doMove(CheckersData.rowOf(from), CheckersData.colOf(from), CheckersData.rowOf(to),
+                  CheckersData.colOf(to));
+            turnStart = !(CheckersMove.isPackedJump(move) && board.generateJumpsFrom(player, to, buffer) > 0);
+            if (turnStart)
+               player = CheckersData.opponent(player);
+         }
+         games++;
+      }
+
+
+      private void count(long key, int move, int result) {
+         List<MoveStats> moves = positions.computeIfAbsent(key, k -> new ArrayList<>(2));
+         MoveStats stats = null;
+         for (MoveStats played : moves)
+            if (played.move == move)
+               stats = played;
+         if (stats == null) {
+            stats = new MoveStats(key, move);
+            moves.add(stats);
+         }
+         if (result > 0)
+            stats.wins++;
+         else if (result == 0)
+            stats.draws++;
+         else
+            stats.losses++;
+      }
+
+
+      /**
+       * Write the book, leaving out moves played fewer than minGames
+       * times.  Returns the number of entries written.
+       */
+      int write(Path path, int minGames) throws IOException {
+         List<MoveStats> entries = new ArrayList<>();
+         for (List<MoveStats> moves : positions.values())
+            for (MoveStats stats : moves)
+               if (stats.games() >= minGames)
+                  entries.add(stats);
+         entries.sort((a, b) -> a.key != b.key ? Long.compareUnsigned(a.key, b.key)
+               : Integer.compare(b.games(), a.games()));
+
+         int count = entries.size();
+         int indexBits = Math.min(24, 31 - Integer.numberOfLeadingZeros(Math.max(1, count)));
+         ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + ((1 << indexBits) + 1) * 4 + count * ENTRY_SIZE);
+         out.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(indexBits);
+         int entry = 0;
+         for (int bucket = 0; bucket <= 1 << indexBits; bucket++) {
+            while (entry < count && (indexBits == 0 ? 0 : entries.get(entry).key >>> (64 - indexBits)) < bucket)
+               entry++;
+            out.putInt(entry);
+         }
+         for (MoveStats stats : entries)
+            out.putLong(stats.key).putInt(stats.move).putInt(stats.wins).putInt(stats.draws).putInt(stats.losses);
+         out.flip();
+         try (FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE,
+               StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining())
+               file.write(out);
+         }
+         return count;
+      }
+   }
+
+
+   /**
+    * Command line:  OpeningBook book [-turns n] [-min n] games...
+    * Builds a book from the first n turns (default 15) of the games in
+    * files written by GameRecordWriter, keeping moves played at least the
+    * given number of times (default 2).
+    */
+   public static void main(String[] args) throws IOException {
+      if (args.length < 2) {
+         System.out.println("Usage: OpeningBook book [-turns n] [-min n] games...");
+         return;
+      }
+      int turns = 15;
+      int minGames = 2;
+      List<Path> files = new ArrayList<>();
+      for (int i = 1; i < args.length; i++) {
+         if (args[i].equals("-turns") && i + 1 < args.length)
+            turns = Integer.parseInt(args[++i]);
+         else if (args[i].equals("-min") && i + 1 < args.length)
+            minGames = Integer.parseInt(args[++i]);
+         else
+            files.add(Paths.get(args[i]));
+      }
+      long start = System.nanoTime();
+      Builder builder = new Builder(turns);
+      GameRecord record = new GameRecord();
+      for (Path file : files)
+         try (GameRecordReader in = GameRecordReader.open(file)) {
+            while (in.read(record))
+               builder.add(record);
+         }
+      int entries = builder.write(Paths.get(args[0]), minGames);
+      System.out.printf("%d games, %d positions, %d book entries, %.2f s%n", builder.games,
+            builder.positions.size(), entries, (System.nanoTime() - start) / 1e9);
+   }
+}
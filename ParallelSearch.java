@@ -0,0 +1,213 @@
+package checkers;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class searches with several threads at once ("Lazy SMP").  Every
+ * thread runs its own SearchEngine on its own copy of the board, and all of
+ * them share one transposition table.  The helpers search the same position
+ * in a slightly different order, and what they store in the table lets the
+ * main engine skip work.  The move chosen is the main engine's.
+ */
+
+public class ParallelSearch implements MoveSearch {
+
+   private final int threads;
+   private final TranspositionTable table;
+   private final SearchEngine[] engines;
+   private final ExecutorService helperPool;   // runs the helpers; the main engine runs on the caller's thread
+
+   private long nodes;
+   private long elapsedMillis;
+
+
+   /**
+    * Create a search with the given number of threads, sharing a table of
+    * the given size in megabytes.
+    */
+   ParallelSearch(int threads, int tableMegabytes) {
+      if (threads < 1)
+         throw new IllegalArgumentException("At least one thread is needed, not " + threads);
+      this.threads = threads;
+      table = new TranspositionTable(tableMegabytes);
+      engines = new SearchEngine[threads];
+      for (int i = 0; i < threads; i++)
+         engines[i] = new SearchEngine(table, i);
+      helperPool = threads > 1 ? Executors.newFixedThreadPool(threads - 1, runnable -> {
+         Thread thread = new Thread(runnable, "search-helper");
+         thread.setDaemon(true);
+         return thread;
+      }) : null;
+   }
+
+
+   /**
+    * The thread count to use when none is given: the checkers.threads system
+    * property, or else the number of processors.
+    */
+   static int defaultThreads() {
+      return Integer.getInteger("checkers.threads", Runtime.getRuntime().availableProcessors());
+   }
+
+
+   /**
+    * Search the way SearchEngine.findBestMove() does, with all the threads.
+    */
+   public CheckersMove findBestMove(CheckersData position, int player, CheckersMove[] legalMoves, long timeBudgetMillis) {
+      long start = System.currentTimeMillis();
+      table.newSearch();   // before the helpers start, so none of them stores under the old generation
+      Future<?>[] helpers = new Future<?>[threads];
+      for (int i = 1; i < threads; i++) {
+         SearchEngine helper = engines[i];
+         helper.rearm();
+         helpers[i] = helperPool.submit(() -> helper.findBestMove(position, player, legalMoves, timeBudgetMillis));
+      }
+
+      CheckersMove best = engines[0].findBestMove(position, player, legalMoves, timeBudgetMillis);
+
+      nodes = engines[0].getNodes();
+      for (int i = 1; i < threads; i++) {
+         engines[i].stop();
+         try {
+            helpers[i].get();
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         catch (ExecutionException e) {
+            throw new IllegalStateException("A search helper failed", e.getCause());
+         }
+         nodes += engines[i].getNodes();
+      }
+      elapsedMillis = System.currentTimeMillis() - start;
+      return best;
+   }
+
+
+   /**
+    * Ask a search running on another thread to give up as soon as possible;
+    * it returns the best move of the last depth it finished.
+    */
+   public void stop() {
+      engines[0].stop();
+   }
+
+
+   /**
+    * Be told about every depth the main engine finishes.
+    */
+   public void setProgress(SearchEngine.Progress progress) {
+      engines[0].progress = progress;
+   }
+
+
+   /**
+    * The nodes searched so far by all the threads, for reporting progress
+    * while a search is running.
+    */
+   public long nodesSoFar() {
+      long sum = 0;
+      for (int i = 0; i < threads; i++)
+         sum += engines[i].nodesSoFar();
+      return sum;
+   }
+
+
+   /**
+    * Limit the depth of every engine, for measuring the time to reach it.
+    */
+   void setMaxDepth(int depth) {
+      for (int i = 0; i < threads; i++)
+         engines[i].maxDepth = depth;
+   }
+
+
+   /**
+    * Let every engine look up positions in the endgame databases.
+    */
+   void setEndgameDatabase(EndgameDatabase endgames) {
+      for (int i = 0; i < threads; i++)
+         engines[i].endgames = endgames;
+   }
+
+
+   void clearTable() {
+      table.clear();
+   }
+
+
+   /**
+    * Stop the helper threads.  The search cannot be used afterwards.
+    */
+   public void shutdown() {
+      if (helperPool != null)
+         helperPool.shutdownNow();
+   }
+
+
+   /**
+    * Statistics about the last search.  Nodes are counted over all threads.
+    */
+   long getNodes() {
+      return nodes;
+   }
+
+   public int engineId() {
+      return ALPHA_BETA;
+   }
+
+
+   public int getDepthReached() {
+      return engines[0].getDepthReached();
+   }
+
+   public int getBestScore() {
+      return engines[0].getBestScore();
+   }
+
+   long getElapsedMillis() {
+      return elapsedMillis;
+   }
+
+   public long getNodesPerSecond() {
+      return nodes * 1000 / Math.max(1, elapsedMillis);
+   }
+
+   int getThreads() {
+      return threads;
+   }
+
+
+   /**
+    * Scaling report.  Command line:  ParallelSearch [depth] [maxThreads] [position]
+    * Searches the position (by default the start of the game, RED to move)
+    * to the given depth with 1, 2, 4, 8 ... threads, up to maxThreads, and
+    * prints the time to depth and the speedup over one thread.
+    */
+   public static void main(String[] args) {
+      int depth = args.length > 0 ? Integer.parseInt(args[0]) : 14;
+      int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+      CheckersData data = new CheckersData();
+      if (args.length > 2)
+         data.setUpPosition(args[2]);
+      CheckersMove[] moves = data.getValidMoves(CheckersData.RED);
+
+      long oneThreadMillis = 0;
+      System.out.printf("%8s %10s %9s %14s %14s  %s%n", "threads", "time (ms)", "speedup", "nodes", "nodes/sec", "move");
+      for (int threads = 1; threads <= maxThreads; threads *= 2) {
+         ParallelSearch search = new ParallelSearch(threads, 64);
+         search.setMaxDepth(depth);
+         CheckersMove best = search.findBestMove(data, CheckersData.RED, moves, Long.MAX_VALUE / 2);
+         search.shutdown();
+         long millis = Math.max(1, search.getElapsedMillis());
+         if (threads == 1)
+            oneThreadMillis = millis;
+         System.out.printf("%8d %10d %9.2f %14d %14d  %s%n", threads, millis, (double) oneThreadMillis / millis,
+               search.getNodes(), search.getNodesPerSecond(),
+               Perft.squareName(best.r1, best.c1) + "-" + Perft.squareName(best.r2, best.c2));
+      }
+   }
+}
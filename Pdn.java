@@ -0,0 +1,430 @@
+package checkers;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Paths;
+
+/**
+ * This class converts games between GameRecord and Portable Draughts
+ * Notation, the text format other checkers programs exchange games in.
+ *
+ * PDN numbers the squares from the side that moves first, which it calls
+ * Black, so that its pieces start on squares 1 to 12.  Here that side is
+ * RED, starting on rows 5 to 7, and PDN's White is BLACK.  The PDN board
+ * is this board mirrored top to bottom, which is why PDN square n is
+ * square (n - 1) ^ 28 here: the rows are numbered the other way and the
+ * columns the same way.  Results are from the first mover's side, so "1-0" is a
+ * win for RED.
+ *
+ * Jump chains are written out in full, as 15x24x31.  When reading, the
+ * short form with only the first and last squares is accepted too.
+ * Comments, variations, move numbers and annotations are skipped.  Moves
+ * are checked as they are read, by the rules of this game, which let a
+ * man that is crowned in the middle of a jump chain go on jumping.
+ */
+
+public class Pdn {
+
+   private final CheckersData board = new CheckersData();
+   private final int[][] buffers = new int[32][CheckersData.MAX_MOVES];   // one per jump of a chain
+   private final int[] chain = new int[32];    // the chain being searched for by findChain()
+   private final int[] squares = new int[32];  // the squares of the move being read
+
+   private int pendingChar = -1;   // a character read too far by nextToken()
+   private String pendingTag;      // a tag that starts the next game, read while looking for the end of this one
+   private int games;              // games started by read(), to say which game an error is in
+
+
+   static int toPdn(int square) {
+      return (square ^ 28) + 1;
+   }
+
+
+   static int fromPdn(int number) {
+      return (number - 1) ^ 28;
+   }
+
+
+   /**
+    * Write one game, with an Event tag, the result, and a FEN tag if it
+    * does not start from the normal position.
+    */
+   static void write(GameRecord record, String event, Appendable out) throws IOException {
+      out.append("[Event \"").append(event).append("\"]\n");
+      String result = result(record.winner);
+      out.append("[Result \"").append(result).append("\"]\n");
+      if (!record.isStandardStart())
+         out.append("[FEN \"").append(fen(record)).append("\"]\n");
+
+      StringBuilder line = new StringBuilder();
+      int turn = 0;
+      int player = record.firstPlayer;
+      int i = 0;
+      while (i < record.moveCount) {
+         StringBuilder text = new StringBuilder();
+         if (player == CheckersData.RED)
+            text.append(turn + 1).append(". ");
+         else if (i == 0)
+            text.append("1... ");
+         int move = record.moves[i];
+         text.append(toPdn(CheckersMove.fromSquare(move)));
+         text.append(CheckersMove.isPackedJump(move) ? 'x' : '-').append(toPdn(CheckersMove.toSquare(move)));
+         i++;
+         while (i < record.moveCount && CheckersMove.isPackedJump(move)
+               && CheckersMove.fromSquare(record.moves[i]) == CheckersMove.toSquare(move)) {
+            move = record.moves[i++];
+            text.append('x').append(toPdn(CheckersMove.toSquare(move)));
+         }
+         if (line.length() + text.length() > 78) {
+            out.append(line).append('\n');
+            line.setLength(0);
+         }
+         if (line.length() > 0)
+            line.append(' ');
+         line.append(text);
+         if (player == CheckersData.BLACK)
+            turn++;
+         player = CheckersData.opponent(player);
+      }
+      if (line.length() + result.length() > 78) {
+         out.append(line).append('\n');
+         line.setLength(0);
+      }
+      if (line.length() > 0)
+         line.append(' ');
+      out.append(line).append(result).append("\n\n");
+   }
+
+
+   static String result(int winner) {
+      if (winner == CheckersData.RED)
+         return "1-0";
+      if (winner == CheckersData.BLACK)
+         return "0-1";
+      return "*";
+   }
+
+
+   /**
+    * The starting position in PDN's FEN format, e.g. "B:W18,24,K27:B12,16",
+    * where B and W are the PDN colors as explained above.
+    */
+   static String fen(GameRecord record) {
+      return (record.firstPlayer == CheckersData.RED ? "B" : "W")
+            + ":W" + pieces(record.black, record.kings) + ":B" + pieces(record.red, record.kings);
+   }
+
+
+   private static String pieces(int mask, int kings) {
+      StringBuilder text = new StringBuilder();
+      for (int n = 1; n <= 32; n++) {
+         int bit = 1 << fromPdn(n);
+         if ((mask & bit) != 0) {
+            if (text.length() > 0)
+               text.append(',');
+            if ((kings & bit) != 0)
+               text.append('K');
+            text.append(n);
+         }
+      }
+      return text.toString();
+   }
+
+
+   /**
+    * Read the next game from in into record.  Returns false at the end of
+    * the input.  Throws an IllegalArgumentException if the game has a move
+    * that is not legal, a tag that is not of the form [Name "value"], or a
+    * FEN tag that cannot be read.
+    */
+   boolean read(BufferedReader in, GameRecord record) throws IOException {
+      games++;
+      record.clear();
+      record.setUp(board);
+      int player = record.firstPlayer;
+      boolean started = false;
+      String token;
+      while ((token = nextToken(in)) != null) {
+         if (token.startsWith("[")) {
+            if (started) {
+               pendingTag = token;
+               return true;
+            }
+            tag(token, record);
+            player = record.firstPlayer;
+            continue;
+         }
+         started = true;
+         if (isResult(token)) {
+            record.winner = token.equals("1-0") || token.equals("2-0") ? CheckersData.RED
+                  : token.equals("0-1") || token.equals("0-2") ? CheckersData.BLACK : CheckersData.EMPTY;
+            return true;
+         }
+         int count = parseSquares(token);
+         if (count == 0)
+            continue;   // a move number or something else that is not a move
+         move(record, player, count);
+         player = CheckersData.opponent(player);
+      }
+      return started;
+   }
+
+
+   /**
+    * The next tag (as "[Name "value"]"), or the next word of the move text,
+    * or null at the end of the input.  Comments and variations are skipped.
+    */
+   private String nextToken(BufferedReader in) throws IOException {
+      if (pendingTag != null) {
+         String tag = pendingTag;
+         pendingTag = null;
+         return tag;
+      }
+      StringBuilder token = new StringBuilder();
+      int c;
+      while ((c = next(in)) >= 0) {
+         if (c == '{') {
+            while ((c = next(in)) >= 0 && c != '}')
+               ;
+            continue;
+         }
+         if (c == '(') {
+            int depth = 1;
+            while (depth > 0 && (c = next(in)) >= 0) {
+               if (c == '(')
+                  depth++;
+               else if (c == ')')
+                  depth--;
+            }
+            continue;
+         }
+         if (c == '[') {
+            token.append('[');
+            boolean quoted = false;
+            while ((c = next(in)) >= 0 && c != '\n') {   // a tag is on one line, even if a quote is missing
+               token.append((char) c);
+               if (c == '"')
+                  quoted = !quoted;
+               else if (c == ']' && !quoted)
+                  break;
+            }
+            return token.toString();
+         }
+         if (!Character.isWhitespace(c)) {
+            token.append((char) c);
+            while ((c = next(in)) >= 0 && !Character.isWhitespace(c) && c != '{' && c != '(' && c != '[')
+               token.append((char) c);
+            if (c >= 0 && !Character.isWhitespace(c))
+               pendingChar = c;
+            return token.toString();
+         }
+      }
+      return null;
+   }
+
+
+   private int next(BufferedReader in) throws IOException {
+      if (pendingChar >= 0) {
+         int c = pendingChar;
+         pendingChar = -1;
+         return c;
+      }
+      return in.read();
+   }
+
+
+   private static boolean isResult(String token) {
+      switch (token) {
+      case "1-0": case "0-1": case "2-0": case "0-2": case "1-1": case "1/2-1/2": case "0-0": case "*":
+         return true;
+      default:
+         return false;
+      }
+   }
+
+
+   private void tag(String tag, GameRecord record) {
+      int quote = tag.indexOf('"');
+      if (quote < 0)
+         return;
+      int end = tag.lastIndexOf('"');
+      if (end == quote || !tag.endsWith("]"))
+         throw new IllegalArgumentException("Malformed tag " + tag.trim() + " in game " + games);
+      String name = tag.substring(1, quote).trim();
+      String value = tag.substring(quote + 1, end);
+      if (name.equalsIgnoreCase("FEN")) {
+         readFen(value, record);
+         record.setUp(board);
+      }
+   }
+
+
+   /**
+    * Set the start of the record from a FEN string such as
+    * "B:W18,24,K27:B12,16".  Ranges such as "W21-32" are accepted too.
+    */
+   static void readFen(String fen, GameRecord record) {
+      String[] parts = fen.trim().replace(".", "").split(":");
+      int red = 0, black = 0, kings = 0;
+      int player = CheckersData.RED;
+      for (String part : parts) {
+         part = part.trim();
+         if (part.isEmpty())
+            continue;
+         char color = Character.toUpperCase(part.charAt(0));
+         if (part.length() == 1) {
+            player = color == 'W' ? CheckersData.BLACK : CheckersData.RED;
+            continue;
+         }
+         for (String piece : part.substring(1).split(",")) {
+            piece = piece.trim();
+            if (piece.isEmpty())
+               continue;
+            boolean king = Character.toUpperCase(piece.charAt(0)) == 'K';
+            if (king)
+               piece = piece.substring(1);
+            int dash = piece.indexOf('-');
+            int first, last;
+            try {
+               first = Integer.parseInt(dash < 0 ? piece : piece.substring(0, dash));
+               last = dash < 0 ? first : Integer.parseInt(piece.substring(dash + 1));
+            }
+            catch (NumberFormatException e) {
+               throw new IllegalArgumentException("Cannot read FEN " + fen);
+            }
+            for (int n = first; n <= last; n++) {
+               if (n < 1 || n > 32)
+                  throw new IllegalArgumentException("Cannot read FEN " + fen);
+               int bit = 1 << fromPdn(n);
+               if (color == 'W')
+                  black |= bit;
+               else
+                  red |= bit;
+               if (king)
+                  kings |= bit;
+            }
+         }
+      }
+      record.start(red, black, kings, player);
+   }
+
+
+   /**
+    * Read the squares of a move such as "11-15", "15x24x31" or "15:24" into
+    * squares.  A move number stuck to the front, as in "12.11-15", is
+    * skipped.  Returns how many there are, or 0 if the token is not a move.
+    */
+   private int parseSquares(String token) {
+      token = token.substring(token.lastIndexOf('.') + 1);
+      int count = 0;
+      int number = -1;
+      for (int i = 0; i <= token.length(); i++) {
+         char c = i < token.length() ? token.charAt(i) : '-';
+         if (c >= '0' && c <= '9')
+            number = (number < 0 ? 0 : number * 10) + (c - '0');
+         else if (c == '-' || c == 'x' || c == 'X' || c == ':') {
+            if (number < 1 || number > 32 || count == squares.length)
+               return 0;
+            squares[count++] = fromPdn(number);
+            number = -1;
+         }
+         else if (c == '!' || c == '?')
+            break;
+         else
+            return 0;
+      }
+      if (number >= 1 && number <= 32)
+         squares[count++] = fromPdn(number);
+      return count < 2 ? 0 : count;
+   }
+
+
+   /**
+    * Find the legal move or jump chain that passes through the squares read
+    * by parseSquares(), make it, and add its moves to the record.
+    */
+   private void move(GameRecord record, int player, int count) {
+      int length = findChain(player, -1, 0, 1, count);
+      if (length < 0)
+         throw new IllegalArgumentException("Illegal move " + toPdn(squares[0]) + " to "
+               + toPdn(squares[count - 1]) + " after " + record.moveCount + " moves");
+      for (int i = 0; i < length; i++) {
+         board.makeMove(chain[i]);
+         record.add(chain[i]);
+      }
+   }
+
+
+   /**
+    * Search for a legal turn for player that starts on squares[0], lands on
+    * squares[next..count-1] in order and ends on the last of them.  When
+    * only two squares are given, the jumps in between may land anywhere.  Stores it in chain and returns its
+    * length, or -1 if there is none.  The board is left as it was.
+    */
+   private int findChain(int player, int chainFrom, int depth, int next, int count) {
+      int[] moves = buffers[depth];
+      int n = chainFrom < 0 ? board.generateMoves(player, moves) : board.generateJumpsFrom(player, chainFrom, moves);
+      for (int i = 0; i < n; i++) {
+         int move = moves[i];
+         if (depth == 0 && CheckersMove.fromSquare(move) != squares[0])
+            continue;
+         int to = CheckersMove.toSquare(move);
+         if (count > 2 && to != squares[next])
+            continue;   // a chain written out in full must land on every square given
+         int reached = to == squares[next] ? next + 1 : next;
+         board.makeMove(move);
+         int length = -1;
+         boolean more = CheckersMove.isPackedJump(move) && board.generateJumpsFrom(player, to, buffers[depth + 1]) > 0;
+         if (more) {
+            if (reached < count)
+               length = findChain(player, to, depth + 1, reached, count);
+         }
+         else if (reached == count)
+            length = depth + 1;
+         board.unmakeMove();
+         if (length >= 0) {
+            chain[depth] = move;
+            return length;
+         }
+      }
+      return -1;
+   }
+
+
+   /**
+    * Command line:
+    *   Pdn export games.bin [games.pdn]    binary records to PDN (default: standard output)
+    *   Pdn import games.pdn games.bin      PDN to binary records
+    */
+   public static void main(String[] args) throws IOException {
+      if (args.length < 2 || !(args[0].equals("export") || args[0].equals("import") && args.length > 2)) {
+         System.out.println("Usage: Pdn export games.bin [games.pdn]  or  Pdn import games.pdn games.bin");
+         return;
+      }
+      GameRecord record = new GameRecord();
+      long games = 0;
+      if (args[0].equals("export")) {
+         try (GameRecordReader in = GameRecordReader.open(Paths.get(args[1]));
+              Writer out = new BufferedWriter(args.length > 2 ? new FileWriter(args[2])
+                    : new java.io.OutputStreamWriter(System.out))) {
+            while (in.read(record))
+               write(record, "Game " + ++games, out);
+         }
+      }
+      else {
+         Pdn pdn = new Pdn();
+         try (BufferedReader in = new BufferedReader(new FileReader(args[1]));
+              GameRecordWriter out = GameRecordWriter.create(Paths.get(args[2]))) {
+            while (pdn.read(in, record)) {
+               out.write(record);
+               games++;
+            }
+         }
+         System.out.println(games + " games imported");
+      }
+   }
+}
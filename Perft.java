@@ -0,0 +1,254 @@
+package checkers;
+
+/**
+ * This class counts the move paths from a position down to a given depth
+ * ("perft"), which is used to check the move generators against known node
+ * counts and to measure how fast they are.
+ * A whole multi-jump chain counts as a single move, just as it is a single
+ * turn in the game.  In this game a man that is crowned in the middle of a
+ * chain keeps jumping as a king; published perft tables end the turn on
+ * crowning instead, so that rule can be switched on to compare with them.
+ * Moves are generated by one of five backends: the
+ * original square-by-square scan, the bitboard generator behind
+ * getValidMoves(), the packed generator with makeMove()/unmakeMove(), the
+ * same with the incremental move cache switched on, or generateTurns(),
+ * which makes each chain in one step.  generateTurns() keeps only one of
+ * the chains that capture the same pieces and end on the same square, so
+ * where there are such chains its counts are lower; it cannot end chains
+ * on crowning.
+ */
+
+public class Perft {
+   
+   static final int SCAN = 0;       // getValidMoves() scanning checkerBoard
+   static final int BITBOARD = 1;   // getValidMoves() using the masks
+   static final int PACKED = 2;     // generateMoves() into reusable buffers
+   static final int CACHED = 3;     // the same, reading the moves from the move cache
+   static final int TURNS = 4;      // generateTurns() with makeTurn()/unmakeTurn()
+   
+   static final String[] BACKEND_NAMES = { "scan", "bitboard", "packed", "cached", "turns" };
+   
+   private final CheckersData data;
+   private final int backend;
+   
+   boolean crowningEndsTurn;   // end a jump chain when the piece is crowned, as published tables do
+   
+   private int[][] buffers = new int[16][];  // one move buffer for each ply of the packed backend
+   private long[][] turnBuffers = new long[16][];  // the same for the turns backend
+   
+   
+   Perft(CheckersData data, int backend) {
+      this.data = data;
+      this.backend = backend;
+      data.bitboardMode = (backend != SCAN);
+      data.setMoveCache(backend == CACHED);
+   }
+   
+   
+   /**
+    * Count the move paths of the given depth starting with player to move.
+    */
+   long perft(int player, int depth) {
+      if (depth == 0)
+         return 1;
+      if (backend == PACKED || backend == CACHED)
+         return packedPerft(player, depth, -1, 0);
+      if (backend == TURNS) {
+         if (crowningEndsTurn)
+            throw new IllegalStateException("The turns backend cannot end chains on crowning");
+         return turnPerft(player, depth, 0);
+      }
+      return objectPerft(player, depth, null);
+   }
+   
+   
+   /**
+    * Count the paths below each root move separately and print one line
+    * per root move, followed by the total.
+    */
+   long divide(int player, int depth) {
+      long total = 0;
+      CheckersMove[] moves = data.getValidMoves(player);
+      if (moves == null || depth == 0)
+         return depth == 0 ? 1 : 0;
+      for (int i = 0; i < moves.length; i++)
+         total += divideMove(player, depth, moves[i], squareName(moves[i].r1, moves[i].c1));
+      System.out.println("Total: " + total);
+      return total;
+   }
+   
+   
+   /**
+    * Make a root move (or the next jump in a root chain), and either follow
+    * the chain further or count the subtree below the finished move.
+    */
+   private long divideMove(int player, int depth, CheckersMove move, String name) {
+      long nodes;
+      name = name + (move.isJump() ? "x" : "-") + squareName(move.r2, move.c2);
+      data.makeMove(move);
+      CheckersMove[] jumps = continuesChain(move.isJump()) ? data.getValidJumpsFrom(player, move.r2, move.c2) : null;
+      if (jumps != null) {
+         nodes = 0;
+         for (int i = 0; i < jumps.length; i++)
+            nodes += divideMove(player, depth, jumps[i], name);
+      }
+      else {
+         nodes = perft(CheckersData.opponent(player), depth - 1);
+         System.out.println(name + ": " + nodes);
+      }
+      data.unmakeMove();
+      return nodes;
+   }
+   
+   
+   /**
+    * Perft through the CheckersMove API.  If continueFrom is not null,
+    * the player is in the middle of a jump chain and must keep jumping
+    * with that piece.
+    */
+   private long objectPerft(int player, int depth, CheckersMove continueFrom) {
+      CheckersMove[] moves;
+      if (continueFrom == null)
+         moves = data.getValidMoves(player);
+      else
+         moves = data.getValidJumpsFrom(player, continueFrom.r2, continueFrom.c2);
+      if (moves == null)
+         return 0;
+      long nodes = 0;
+      for (int i = 0; i < moves.length; i++) {
+         CheckersMove move = moves[i];
+         data.makeMove(move);
+         if (continuesChain(move.isJump()) && data.getValidJumpsFrom(player, move.r2, move.c2) != null)
+            nodes += objectPerft(player, depth, move);
+         else if (depth == 1)
+            nodes++;
+         else
+            nodes += objectPerft(CheckersData.opponent(player), depth - 1, null);
+         data.unmakeMove();
+      }
+      return nodes;
+   }
+   
+   
+   /**
+    * Perft through generateMoves()/generateJumpsFrom(), which allocates
+    * nothing once the buffers exist.  chainFrom is the square of the piece
+    * that must continue jumping, or -1 at the start of a turn.
+    */
+   private long packedPerft(int player, int depth, int chainFrom, int ply) {
+      int[] moves = buffer(ply);
+      int count;
+      if (chainFrom < 0)
+         count = data.generateMoves(player, moves);
+      else
+         count = data.generateJumpsFrom(player, chainFrom, moves);
+      long nodes = 0;
+      for (int i = 0; i < count; i++) {
+         int move = moves[i];
+         int to = CheckersMove.toSquare(move);
+         data.makeMove(move);
+         if (continuesChain(CheckersMove.isPackedJump(move)) && data.generateJumpsFrom(player, to, buffer(ply + 1)) > 0)
+            nodes += packedPerft(player, depth, to, ply + 1);
+         else if (depth == 1)
+            nodes++;
+         else
+            nodes += packedPerft(CheckersData.opponent(player), depth - 1, -1, ply + 1);
+         data.unmakeMove();
+      }
+      return nodes;
+   }
+   
+   
+   /**
+    * Perft through generateTurns(), making each whole turn at once.
+    */
+   private long turnPerft(int player, int depth, int ply) {
+      if (ply == turnBuffers.length)
+         turnBuffers = java.util.Arrays.copyOf(turnBuffers, ply * 2);
+      if (turnBuffers[ply] == null)
+         turnBuffers[ply] = new long[CheckersData.MAX_MOVES];
+      long[] turns = turnBuffers[ply];
+      int count = data.generateTurns(player, turns);
+      if (depth == 1)
+         return count;
+      long nodes = 0;
+      for (int i = 0; i < count; i++) {
+         data.makeTurn(turns[i]);
+         nodes += turnPerft(CheckersData.opponent(player), depth - 1, ply + 1);
+         data.unmakeTurn();
+      }
+      return nodes;
+   }
+   
+   
+   /**
+    * Whether the move just made may be followed by another jump.
+    */
+   private boolean continuesChain(boolean wasJump) {
+      return wasJump && !(crowningEndsTurn && data.lastMoveCrowned());
+   }
+   
+   
+   private int[] buffer(int ply) {
+      if (ply == buffers.length)
+         buffers = java.util.Arrays.copyOf(buffers, ply * 2);
+      if (buffers[ply] == null)
+         buffers[ply] = new int[CheckersData.MAX_MOVES];
+      return buffers[ply];
+   }
+   
+   
+   /**
+    * Squares are named 1 to 32, which is the square index plus one.
+    */
+   static String squareName(int row, int col) {
+      return Integer.toString(CheckersData.square(row, col) + 1);
+   }
+   
+   
+   /**
+    * Command line:  Perft depth [scan|bitboard|packed|cached|turns] [red|black] [standard] [position]
+    * The options after the depth may come in any order.  The position is
+    * given as 32 characters, as read by setUpPosition(); if it is left out
+    * the game starts from setUpGame().  "standard" ends jump chains on
+    * crowning.  The node count for each root move is printed, then the
+    * total and the speed at every depth.
+    */
+   public static void main(String[] args) {
+      if (args.length < 1) {
+         System.out.println("Usage: Perft depth [scan|bitboard|packed|cached|turns] [red|black] [standard] [position]");
+         return;
+      }
+      int depth = Integer.parseInt(args[0]);
+      int backend = PACKED;
+      int player = CheckersData.RED;
+      boolean standard = false;
+      CheckersData data = new CheckersData();
+      for (int i = 1; i < args.length; i++) {
+         String arg = args[i];
+         int named = java.util.Arrays.asList(BACKEND_NAMES).indexOf(arg.toLowerCase());
+         if (named >= 0)
+            backend = named;
+         else if (arg.equalsIgnoreCase("red"))
+            player = CheckersData.RED;
+         else if (arg.equalsIgnoreCase("black"))
+            player = CheckersData.BLACK;
+         else if (arg.equalsIgnoreCase("standard"))
+            standard = true;
+         else
+            data.setUpPosition(arg);
+      }
+      
+      Perft perft = new Perft(data, backend);
+      perft.crowningEndsTurn = standard;
+      perft.divide(player, depth);
+      
+      for (int d = 1; d <= depth; d++) {
+         long start = System.nanoTime();
+         long nodes = perft.perft(player, d);
+         long nanos = Math.max(1, System.nanoTime() - start);
+         System.out.printf("depth %2d  %14d nodes  %10.3f s  %,14.0f nodes/sec  (%s)%n",
+               d, nodes, nanos / 1e9, nodes * 1e9 / nanos, BACKEND_NAMES[backend]);
+      }
+   }
+}
@@ -0,0 +1,144 @@
+package checkers;
+
+/**
+ * An immutable checkers position: the red, black and king masks of
+ * CheckersData, and the player to move.  A Position is four ints and
+ * nothing else, so it costs one small allocation to make, can be handed
+ * to any number of threads without copying or locking, and works as a
+ * key in hash tables.
+ *
+ * Positions are made from a CheckersData with of() and turned back into
+ * one with setUp().  with() gives the position after a whole turn from
+ * turns(), which are generated from the masks alone.
+ */
+
+public final class Position {
+
+   static final Position START = new Position(GameRecord.STANDARD_RED, GameRecord.STANDARD_BLACK, 0,
+         CheckersData.RED);
+
+   final int red;      // squares with red pieces, bit sq for square sq
+   final int black;    // squares with black pieces
+   final int kings;    // squares with kings of either color
+   final int player;   // CheckersData.RED or CheckersData.BLACK, to move
+
+
+   Position(int red, int black, int kings, int player) {
+      if ((red & black) != 0 || (kings & ~(red | black)) != 0)
+         throw new IllegalArgumentException("Inconsistent masks");
+      if (player != CheckersData.RED && player != CheckersData.BLACK)
+         throw new IllegalArgumentException("Unknown player " + player);
+      this.red = red;
+      this.black = black;
+      this.kings = kings;
+      this.player = player;
+   }
+
+
+   /**
+    * The position on a board, with player to move.
+    */
+   static Position of(CheckersData data, int player) {
+      return new Position(data.redMask, data.blackMask, data.kingMask, player);
+   }
+
+
+   /**
+    * Set up this position on a board.  The board's undo stacks are cleared.
+    */
+   void setUp(CheckersData data) {
+      data.setUpPosition(red, black, kings);
+   }
+
+
+   /**
+    * A new board holding this position.
+    */
+   CheckersData toData() {
+      CheckersData data = new CheckersData();
+      setUp(data);
+      return data;
+   }
+
+
+   /**
+    * Write the turns the player to move has into turns, as
+    * CheckersData.generateTurns() does, and return how many there are.
+    */
+   int turns(long[] turns) {
+      return CheckersData.generateTurns(red, black, kings, player, turns);
+   }
+
+
+   /**
+    * The position after a turn from turns(), with the other player to move.
+    */
+   Position with(long turn) {
+      int fromBit = 1 << CheckersMove.turnFrom(turn);
+      int toBit = 1 << CheckersMove.turnTo(turn);
+      int captured = CheckersMove.turnCaptured(turn);
+      int newKings = kings & ~captured;
+      if ((newKings & fromBit) != 0)
+         newKings = (newKings & ~fromBit) | toBit;
+      if (CheckersMove.turnCrowns(turn))
+         newKings |= toBit;
+      if (player == CheckersData.RED)
+         return new Position((red & ~fromBit) | toBit, black & ~captured, newKings, CheckersData.BLACK);
+      return new Position(red & ~captured, (black & ~fromBit) | toBit, newKings, CheckersData.RED);
+   }
+
+
+   /**
+    * The same key as CheckersData.hashKey() gives for this position.
+    */
+   long hashKey() {
+      long key = player == CheckersData.BLACK ? CheckersData.BLACK_TO_MOVE : 0;
+      for (int pieces = red | black; pieces != 0; pieces &= pieces - 1) {
+         int sq = Integer.numberOfTrailingZeros(pieces);
+         int piece = (red & (1 << sq)) != 0 ? CheckersData.RED : CheckersData.BLACK;
+         if ((kings & (1 << sq)) != 0)
+            piece++;
+         key ^= CheckersData.ZOBRIST[piece][sq];
+      }
+      return key;
+   }
+
+
+   @Override
+   public boolean equals(Object other) {
+      if (!(other instanceof Position))
+         return false;
+      Position that = (Position) other;
+      return red == that.red && black == that.black && kings == that.kings && player == that.player;
+   }
+
+
+   /**
+    * The masks mixed together, so that positions that differ by a single
+    * piece still spread over the whole range.
+    */
+   @Override
+   public int hashCode() {
+      long h = ((long) red << 32 | (black & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L;
+      h ^= ((kings & 0xFFFFFFFFL) * 0xC2B2AE3D27D4EB4FL) + player;
+      h ^= h >>> 29;
+      h *= 0xBF58476D1CE4E5B9L;
+      return (int) (h ^ (h >>> 32));
+   }
+
+
+   /**
+    * The position in the format read by CheckersData.setUpPosition(),
+    * followed by the player to move.
+    */
+   @Override
+   public String toString() {
+      StringBuilder text = new StringBuilder(38);
+      for (int sq = 0; sq < 32; sq++) {
+         int bit = 1 << sq;
+         char piece = (red & bit) != 0 ? 'r' : (black & bit) != 0 ? 'b' : '.';
+         text.append((kings & bit) != 0 ? Character.toUpperCase(piece) : piece);
+      }
+      return text.append(player == CheckersData.RED ? " red" : " black").toString();
+   }
+}
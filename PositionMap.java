@@ -0,0 +1,207 @@
+package checkers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A map from positions to how the games through them ended, kept off the
+ * Java heap: for each position the number of wins, draws and losses for
+ * the player to move.  Each position takes one 32-byte slot, and the
+ * counts are added to atomically, so many threads can record games at
+ * once.  See PositionTable.
+ */
+
+public class PositionMap extends PositionTable {
+
+   static final int WIN = 0;
+   static final int DRAW = 1;
+   static final int LOSS = 2;
+
+   private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+   /**
+    * Receives the positions of the map with their counts.
+    */
+   interface Visitor {
+      void visit(Position position, int wins, int draws, int losses);
+   }
+
+
+   /**
+    * Create a map using at most directBytes of direct memory, and spill
+    * files in spillDirectory beyond that; spillDirectory may be null.
+    */
+   PositionMap(long directBytes, Path spillDirectory) {
+      super(32, 64, directBytes, spillDirectory);
+   }
+
+
+   /**
+    * Count one game through a position that ended in result (WIN, DRAW or
+    * LOSS) for player.  Returns true if the position is new to the map.
+    */
+   boolean record(int red, int black, int kings, int player, int result) {
+      return insert(key0(red, black), key1(kings, player), result);
+   }
+
+   boolean record(Position position, int result) {
+      return record(position.red, position.black, position.kings, position.player, result);
+   }
+
+   boolean record(CheckersData data, int player, int result) {
+      return record(data.redMask, data.blackMask, data.kingMask, player, result);
+   }
+
+
+   @Override
+   void found(ByteBuffer buffer, int offset, int result) {
+      INTS.getAndAdd(buffer, offset + 16 + 4 * result, 1);
+   }
+
+
+   /**
+    * The wins, draws and losses counted for a position, or null if it is
+    * not in the map.
+    */
+   int[] get(Position position) {
+      return lookup(key0(position.red, position.black), key1(position.kings, position.player),
+            (buffer, offset) -> offset < 0 ? null : counts(buffer, offset));
+   }
+
+
+   private static int[] counts(ByteBuffer buffer, int offset) {
+      return new int[] { (int) INTS.getVolatile(buffer, offset + 16), (int) INTS.getVolatile(buffer, offset + 20),
+            (int) INTS.getVolatile(buffer, offset + 24) };
+   }
+
+
+   /**
+    * Pass every position and its counts to the visitor.
+    */
+   void forEach(Visitor visitor) {
+      forEachSlot((buffer, offset) -> {
+         visitor.visit(position(buffer.getLong(offset), buffer.getLong(offset + 8)), buffer.getInt(offset + 16),
+               buffer.getInt(offset + 20), buffer.getInt(offset + 24));
+         return null;
+      });
+   }
+
+
+   /**
+    * Record every position in a game at which a turn starts, with how the
+    * game ended for the player to move.  Games that were not finished
+    * count as draws.  Returns the number of positions recorded.
+    */
+   int recordGame(GameRecord record, CheckersData board, int[] buffer) {
+      record.setUp(board);
+      int player = record.firstPlayer;
+      int chainFrom = -1;   // the square a jump chain goes on from, or -1
+      int positions = 0;
+      for (int i = 0; i <= record.moveCount; i++) {
+         if (chainFrom < 0) {
+            int result = record.winner == CheckersData.EMPTY ? DRAW : record.winner == player ? WIN : LOSS;
+            record(board, player, result);
+            positions++;
+         }
+         if (i == record.moveCount)
+            break;
+         int move = record.moves[i];
+         int from = CheckersMove.fromSquare(move);
+         int to = CheckersMove.toSquare(move);
+         board.doMove(CheckersData.rowOf(from), CheckersData.colOf(from), CheckersData.rowOf(to), CheckersData.colOf(to));
+         if (CheckersMove.isPackedJump(move) && board.generateJumpsFrom(player, to, buffer) > 0)
+            chainFrom = to;
+         else {
+            chainFrom = -1;
+            player = CheckersData.opponent(player);
+         }
+      }
+      return positions;
+   }
+
+
+   /**
+    * Command line:  PositionMap [-memory megabytes] [-spill directory] [-top n] file...
+    * Reads games written by GameRecordWriter, one thread for each file,
+    * and records every position in them.  Prints the number of positions
+    * and of different positions, and the n positions met most often with
+    * their results.  The map uses at most the given direct memory
+    * (default 1024 MB) and then spills to files in the directory.
+    */
+   public static void main(String[] args) throws Exception {
+      long megabytes = 1024;
+      Path spill = null;
+      int top = 10;
+      List<Path> files = new ArrayList<>();
+      for (int i = 0; i < args.length; i++) {
+         if (args[i].equals("-memory") && i + 1 < args.length)
+            megabytes = Long.parseLong(args[++i]);
+         else if (args[i].equals("-spill") && i + 1 < args.length)
+            spill = Paths.get(args[++i]);
+         else if (args[i].equals("-top") && i + 1 < args.length)
+            top = Integer.parseInt(args[++i]);
+         else
+            files.add(Paths.get(args[i]));
+      }
+      if (files.isEmpty()) {
+         System.out.println("Usage: PositionMap [-memory megabytes] [-spill directory] [-top n] file...");
+         return;
+      }
+
+      AtomicLong games = new AtomicLong();
+      AtomicLong positions = new AtomicLong();
+      long start = System.nanoTime();
+      try (PositionMap map = new PositionMap(megabytes << 20, spill)) {
+         ExecutorService pool = Executors.newFixedThreadPool(
+               Math.min(files.size(), Runtime.getRuntime().availableProcessors()));
+         List<Future<?>> results = new ArrayList<>();
+         for (Path file : files)
+            results.add(pool.submit(() -> {
+               CheckersData board = new CheckersData();
+               GameRecord record = new GameRecord();
+               int[] buffer = new int[CheckersData.MAX_MOVES];
+               try (GameRecordReader in = GameRecordReader.open(file)) {
+                  while (in.read(record)) {
+                     positions.addAndGet(map.recordGame(record, board, buffer));
+                     games.incrementAndGet();
+                  }
+               }
+               catch (IOException e) {
+                  throw new UncheckedIOException("Cannot read " + file, e);
+               }
+            }));
+         for (Future<?> result : results)
+            result.get();
+         pool.shutdown();
+         double seconds = (System.nanoTime() - start) / 1e9;
+         System.out.printf("%d games, %d positions, %d different, %.2f s: %.0f positions/sec, %d MB spilled%n",
+               games.get(), positions.get(), map.size(), seconds, positions.get() / seconds,
+               map.spilledBytes() >> 20);
+
+         int n = top;
+         PriorityQueue<Object[]> most = new PriorityQueue<>((a, b) -> Integer.compare((int) a[1], (int) b[1]));
+         map.forEach((position, wins, draws, losses) -> {
+            most.add(new Object[] { position, wins + draws + losses, wins, draws, losses });
+            if (most.size() > n)
+               most.poll();
+         });
+         List<Object[]> sorted = new ArrayList<>(most);
+         sorted.sort((a, b) -> Integer.compare((int) b[1], (int) a[1]));
+         for (Object[] entry : sorted)
+            System.out.printf("%s  %8d games  +%d =%d -%d%n", entry);
+      }
+   }
+}
@@ -0,0 +1,42 @@
+package checkers;
+
+import java.nio.file.Path;
+
+/**
+ * A set of positions kept off the Java heap, for counting the different
+ * positions in collections of games too big for heap objects.  Each
+ * position takes one 16-byte slot.  See PositionTable.
+ */
+
+public class PositionSet extends PositionTable {
+
+   /**
+    * Create a set using at most directBytes of direct memory, and spill
+    * files in spillDirectory beyond that; spillDirectory may be null.
+    */
+   PositionSet(long directBytes, Path spillDirectory) {
+      super(16, 64, directBytes, spillDirectory);
+   }
+
+
+   /**
+    * Add a position.  Returns true if it was not in the set before.
+    */
+   boolean add(int red, int black, int kings, int player) {
+      return insert(key0(red, black), key1(kings, player), 0);
+   }
+
+   boolean add(Position position) {
+      return add(position.red, position.black, position.kings, position.player);
+   }
+
+   boolean add(CheckersData data, int player) {
+      return add(data.redMask, data.blackMask, data.kingMask, player);
+   }
+
+
+   boolean contains(Position position) {
+      return lookup(key0(position.red, position.black), key1(position.kings, position.player),
+            (buffer, offset) -> offset >= 0);
+   }
+}
@@ -0,0 +1,353 @@
+package checkers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An open-addressing hash table of positions that lives outside the Java
+ * heap, the common part of PositionSet and PositionMap.  A position is
+ * packed into two longs, and each slot holds the key followed by whatever
+ * the subclass keeps for it, so the heap holds only the table's few
+ * objects however many positions there are.
+ *
+ * The table is split by hash into segments, each a power-of-two table
+ * with linear probing in its own buffer.  Buffers are direct until the
+ * direct memory given to the table is used up; after that they are
+ * memory-mapped files in the spill directory, which the operating system
+ * pages to disk as it needs.  Without a spill directory the table stays
+ * in direct memory.
+ *
+ * Many threads may insert at once.  A slot is claimed by a compare-and-set
+ * of its second key long from 0 (empty) to BUSY, then the first long is
+ * written and the second published; a thread that meets a BUSY slot waits
+ * for it.  Inserts into a segment share its read lock, and a segment that
+ * is three quarters full is doubled under its write lock.
+ */
+
+public abstract class PositionTable implements AutoCloseable {
+
+   static final long PRESENT = 1L << 40;   // set in the second key long of every stored position
+   static final long BUSY = 1L << 41;      // a slot that is being claimed
+
+   static final int MIN_SLOTS = 1 << 10;   // per segment
+   static final int MAX_BYTES = 1 << 30;   // per segment buffer
+
+   private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+   /**
+    * One part of the table, with its own buffer and lock.
+    */
+   private final class Segment {
+      final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+      final AtomicInteger count = new AtomicInteger();
+      ByteBuffer buffer;
+      Path file;        // the file behind buffer, or null if it is direct
+      int mask;         // slots - 1
+      int threshold;    // grow when count reaches this
+   }
+
+   private final int slotBytes;
+   private final Segment[] segments;
+   private final int segmentShift;
+   private final Path spillDirectory;
+   private final AtomicLong directBytesLeft;
+   private final AtomicInteger files = new AtomicInteger();   // numbers spill files
+   private final AtomicLong mappedBytes = new AtomicLong();
+
+
+   /**
+    * Create a table whose slots are slotBytes long, a multiple of 8 and at
+    * least 16.  At most directBytes of direct memory are used; beyond that
+    * buffers are mapped in spillDirectory, or, if it is null, allocation
+    * fails with an IllegalStateException.
+    */
+   PositionTable(int slotBytes, int segmentCount, long directBytes, Path spillDirectory) {
+      if (slotBytes < 16 || slotBytes % 8 != 0)
+         throw new IllegalArgumentException("Bad slot size " + slotBytes);
+      this.slotBytes = slotBytes;
+      this.spillDirectory = spillDirectory;
+      this.directBytesLeft = new AtomicLong(directBytes);
+      int count = Integer.highestOneBit(Math.max(1, segmentCount));
+      segmentShift = 64 - Integer.numberOfTrailingZeros(count);
+      segments = new Segment[count];
+      for (int i = 0; i < count; i++) {
+         Segment segment = new Segment();
+         allocate(segment, MIN_SLOTS);
+         segments[i] = segment;
+      }
+   }
+
+
+   /* Keys.  The first long holds the red and black masks, the second the
+      king mask, the player to move in bit 32 and PRESENT. */
+
+   static long key0(int red, int black) {
+      return (red & 0xFFFFFFFFL) | (long) black << 32;
+   }
+
+   static long key1(int kings, int player) {
+      return (kings & 0xFFFFFFFFL) | (player == CheckersData.BLACK ? 1L << 32 : 0) | PRESENT;
+   }
+
+   static Position position(long key0, long key1) {
+      return new Position((int) key0, (int) (key0 >>> 32), (int) key1,
+            (key1 & 1L << 32) != 0 ? CheckersData.BLACK : CheckersData.RED);
+   }
+
+
+   private static long hash(long key0, long key1) {
+      long h = key0 * 0x9E3779B97F4A7C15L ^ key1 * 0xC2B2AE3D27D4EB4FL;
+      h ^= h >>> 31;
+      h *= 0xBF58476D1CE4E5B9L;
+      return h ^ (h >>> 29);
+   }
+
+
+   /**
+    * Find the slot of a position, claiming an empty one for it if it is not
+    * there, and pass the slot's offset to found() while the segment is
+    * locked against resizing.  Returns true if the position was added.
+    */
+   final boolean insert(long key0, long key1, int argument) {
+      long h = hash(key0, key1);
+      Segment segment = segments[segmentShift == 64 ? 0 : (int) (h >>> segmentShift)];
+      while (true) {
+         if (segment.count.get() >= segment.threshold)
+            grow(segment);
+         ReentrantReadWriteLock.ReadLock lock = segment.lock.readLock();
+         lock.lock();
+         try {
+            if (segment.count.get() >= segment.threshold)
+               continue;   // grow first
+            ByteBuffer buffer = segment.buffer;
+            int mask = segment.mask;
+            for (int i = (int) h & mask; ; i = (i + 1) & mask) {
+               int offset = i * slotBytes;
+               long stored = (long) LONGS.getAcquire(buffer, offset + 8);
+               if (stored == 0) {
+                  if (!LONGS.compareAndSet(buffer, offset + 8, 0L, BUSY)) {
+                     i = (i - 1) & mask;   // look at the same slot again
+                     continue;
+                  }
+                  LONGS.set(buffer, offset, key0);
+                  LONGS.setRelease(buffer, offset + 8, key1);
+                  segment.count.incrementAndGet();
+                  found(buffer, offset, argument);
+                  return true;
+               }
+               while (stored == BUSY) {
+                  Thread.onSpinWait();
+                  stored = (long) LONGS.getAcquire(buffer, offset + 8);
+               }
+               if (stored == key1 && (long) LONGS.get(buffer, offset) == key0) {
+                  found(buffer, offset, argument);
+                  return false;
+               }
+            }
+         }
+         finally {
+            lock.unlock();
+         }
+      }
+   }
+
+
+   /**
+    * Called by insert() with the slot of the position, which starts at
+    * offset in buffer.  The default does nothing.
+    */
+   void found(ByteBuffer buffer, int offset, int argument) {
+   }
+
+
+   /**
+    * Pass the offset of the slot holding a position to the reader under
+    * the segment's read lock, or -1 if the position is not there, and
+    * return what the reader returns.
+    */
+   final <T> T lookup(long key0, long key1, SlotReader<T> reader) {
+      long h = hash(key0, key1);
+      Segment segment = segments[segmentShift == 64 ? 0 : (int) (h >>> segmentShift)];
+      ReentrantReadWriteLock.ReadLock lock = segment.lock.readLock();
+      lock.lock();
+      try {
+         ByteBuffer buffer = segment.buffer;
+         int mask = segment.mask;
+         for (int i = (int) h & mask; ; i = (i + 1) & mask) {
+            int offset = i * slotBytes;
+            long stored = (long) LONGS.getAcquire(buffer, offset + 8);
+            while (stored == BUSY) {
+               Thread.onSpinWait();
+               stored = (long) LONGS.getAcquire(buffer, offset + 8);
+            }
+            if (stored == 0)
+               return reader.read(buffer, -1);
+            if (stored == key1 && (long) LONGS.get(buffer, offset) == key0)
+               return reader.read(buffer, offset);
+         }
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+
+   interface SlotReader<T> {
+      T read(ByteBuffer buffer, int offset);
+   }
+
+
+   /**
+    * Pass every stored slot to the reader, one segment at a time.  Inserts
+    * into the segment being read wait until it is done.
+    */
+   final void forEachSlot(SlotReader<?> reader) {
+      for (Segment segment : segments) {
+         ReentrantReadWriteLock.WriteLock lock = segment.lock.writeLock();
+         lock.lock();
+         try {
+            for (int offset = 0; offset <= segment.mask * slotBytes; offset += slotBytes)
+               if (segment.buffer.getLong(offset + 8) != 0)
+                  reader.read(segment.buffer, offset);
+         }
+         finally {
+            lock.unlock();
+         }
+      }
+   }
+
+
+   /**
+    * The number of positions stored.
+    */
+   long size() {
+      long size = 0;
+      for (Segment segment : segments)
+         size += segment.count.get();
+      return size;
+   }
+
+
+   /**
+    * The number of bytes in memory-mapped spill files.
+    */
+   long spilledBytes() {
+      return mappedBytes.get();
+   }
+
+
+   /**
+    * Double a segment, unless another thread has done it already.
+    */
+   private void grow(Segment segment) {
+      ReentrantReadWriteLock.WriteLock lock = segment.lock.writeLock();
+      lock.lock();
+      try {
+         if (segment.count.get() < segment.threshold)
+            return;
+         ByteBuffer old = segment.buffer;
+         Path oldFile = segment.file;
+         int oldSlots = segment.mask + 1;
+         if ((long) oldSlots * 2 * slotBytes > MAX_BYTES)
+            throw new IllegalStateException("Position table segment is full at " + oldSlots + " slots");
+         allocate(segment, oldSlots * 2);
+         byte[] slot = new byte[slotBytes];
+         for (int offset = 0; offset < oldSlots * slotBytes; offset += slotBytes) {
+            long key1 = old.getLong(offset + 8);
+            if (key1 == 0)
+               continue;
+            long key0 = old.getLong(offset);
+            int i = (int) hash(key0, key1) & segment.mask;
+            while (segment.buffer.getLong(i * slotBytes + 8) != 0)
+               i = (i + 1) & segment.mask;
+            old.get(offset, slot);
+            segment.buffer.put(i * slotBytes, slot);
+         }
+         release(old, oldFile);
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+
+   /**
+    * Give a segment an empty buffer of the given number of slots.
+    */
+   private void allocate(Segment segment, int slots) {
+      int bytes = slots * slotBytes;
+      if (directBytesLeft.addAndGet(-bytes) >= 0) {
+         segment.buffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+         segment.file = null;
+      }
+      else {
+         directBytesLeft.addAndGet(bytes);
+         if (spillDirectory == null)
+            throw new IllegalStateException("Position table is out of direct memory and has no spill directory");
+         Path file = spillDirectory.resolve("positions-" + files.getAndIncrement() + ".tbl");
+         try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+               StandardOpenOption.WRITE)) {
+            segment.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes).order(ByteOrder.nativeOrder());
+         }
+         catch (IOException e) {
+            throw new UncheckedIOException("Cannot map " + file, e);
+         }
+         segment.file = file;
+         mappedBytes.addAndGet(bytes);
+      }
+      segment.mask = slots - 1;
+      segment.threshold = slots / 4 * 3;
+   }
+
+
+   /**
+    * Let go of a buffer.  Direct memory is freed when the buffer is
+    * collected; a spill file is deleted now, and its pages go when the
+    * mapping is collected.
+    */
+   private void release(ByteBuffer buffer, Path file) {
+      if (file == null) {
+         directBytesLeft.addAndGet(buffer.capacity());
+         return;
+      }
+      mappedBytes.addAndGet(-buffer.capacity());
+      try {
+         Files.deleteIfExists(file);
+      }
+      catch (IOException e) {
+         throw new UncheckedIOException("Cannot delete " + file, e);
+      }
+   }
+
+
+   /**
+    * Drop every buffer and delete the spill files.
+    */
+   @Override
+   public void close() {
+      for (Segment segment : segments) {
+         ReentrantReadWriteLock.WriteLock lock = segment.lock.writeLock();
+         lock.lock();
+         try {
+            if (segment.buffer != null)
+               release(segment.buffer, segment.file);
+            segment.buffer = null;
+            segment.count.set(0);
+         }
+         finally {
+            lock.unlock();
+         }
+      }
+   }
+}
@@ -0,0 +1,438 @@
+package checkers;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * This class searches for the best move for a player, using iterative
+ * deepening negamax with alpha-beta pruning.  When the depth runs out the
+ * search keeps following jumps (quiescence), since a position where a
+ * capture is forced cannot be scored reliably.  Quiet moves that caused a
+ * cutoff are tried early at the same ply (killer moves) and anywhere else
+ * in the tree (history scores).  Results are kept in a transposition table,
+ * which several engines may share; ParallelSearch runs such engines as
+ * helpers on other threads.
+ * A jump chain is searched one hop at a time; a hop that must be followed
+ * by another jump is a node where the same player moves again.
+ */
+
+public class SearchEngine {
+
+   static final int INFINITY = 1000000;
+   static final int WIN = 100000;       // score of a won position, less the plies needed to win
+   static final int MAX_PLY = 128;
+
+   private static final VarHandle NODES;
+   static {
+      try {
+         NODES = MethodHandles.lookup().findVarHandle(SearchEngine.class, "nodes", long.class);
+      }
+      catch (ReflectiveOperationException e) {
+         throw new ExceptionInInitializerError(e);
+      }
+   }
+
+   private CheckersData data;
+   private final TranspositionTable table;
+   private final int helperId;    // 0 for the main engine, otherwise a helper of a ParallelSearch
+
+   int maxDepth = MAX_PLY;        // stop deepening after this depth
+
+   EndgameDatabase endgames;      // if not null, positions with few pieces are looked up instead of searched
+
+   Progress progress;             // if not null, told about each depth the search finishes
+
+   /**
+    * Receives the best move so far each time the search finishes a depth,
+    * on the searching thread.
+    */
+   interface Progress {
+      void depthCompleted(CheckersMove best, int depth, int score);
+   }
+
+   private final int[][] moves = new int[MAX_PLY + 1][CheckersData.MAX_MOVES];
+   private final int[][] orderScores = new int[MAX_PLY + 1][CheckersData.MAX_MOVES];
+   private final int[][] killers = new int[MAX_PLY + 1][2];
+   private final int[][] history = new int[32][32];   // indexed by from and to square
+
+   private long nodes;
+   private long expandedNodes;      // for EngineMetrics: nodes whose moves were searched,
+   private long cutoffs;            // the cutoffs among them,
+   private long firstMoveCutoffs;   // those caused by the first move searched,
+   private long tableProbes;        // table lookups and how many found an entry,
+   private long tableHits;
+   private long chainHops;          // and jumps followed by another jump
+   private int depthReached;
+   private long elapsedMillis;
+   private int bestScore;
+
+   private long deadline;
+   private volatile boolean stopped;
+
+
+   /**
+    * Create an engine with its own 16 megabyte transposition table.
+    */
+   SearchEngine() {
+      this(new TranspositionTable(16));
+   }
+
+   /**
+    * Create an engine that stores its results in the given table.
+    */
+   SearchEngine(TranspositionTable table) {
+      this(table, 0);
+   }
+
+   /**
+    * Create an engine that shares the table with other engines.  Helpers
+    * search the root moves in a rotated order and half of them skip the
+    * first iteration, so that they fill the table with different parts of
+    * the tree than the main engine.
+    */
+   SearchEngine(TranspositionTable table, int helperId) {
+      this.table = table;
+      this.helperId = helperId;
+   }
+
+
+   /**
+    * Ask a search running on another thread to give up as soon as possible.
+    * findBestMove() then returns the best move of the last finished depth.
+    */
+   void stop() {
+      stopped = true;
+   }
+
+   void rearm() {
+      stopped = false;
+   }
+
+
+   /**
+    * Search for the best of the legal moves for player, giving up after
+    * about timeBudgetMillis milliseconds.  The moves must be those the
+    * board offers the player, which may be the rest of a jump chain.
+    * The position itself is not changed.  Returns null if there are no
+    * legal moves.  The caller starts a new search of the table first, once
+    * for all the engines that share it.
+    */
+   CheckersMove findBestMove(CheckersData position, int player, CheckersMove[] legalMoves, long timeBudgetMillis) {
+      long start = System.currentTimeMillis();
+      long startNanos = System.nanoTime();
+      deadline = start + timeBudgetMillis;
+      if (helperId == 0)
+         stopped = false;   // helpers are re-armed by ParallelSearch before they start, so an early stop() is not lost
+      nodes = 0;
+      expandedNodes = cutoffs = firstMoveCutoffs = tableProbes = tableHits = chainHops = 0;
+      depthReached = 0;
+      bestScore = 0;
+      clearOrdering();
+
+      if (legalMoves == null || legalMoves.length == 0)
+         return null;
+
+      data = new CheckersData(position);
+      int count = legalMoves.length;
+      int[] rootMoves = new int[count];
+      for (int i = 0; i < count; i++)
+         rootMoves[i] = legalMoves[i].toPacked();
+
+      if (helperId > 0)
+         rotate(rootMoves, count, helperId % count);
+
+      int best = rootMoves[0];
+      if (count > 1) {
+         for (int depth = 1 + helperId % 2; depth <= maxDepth && !stopped; depth++) {
+            int score = -INFINITY;
+            int alpha = -INFINITY;
+            int bestThisDepth = rootMoves[0];
+            for (int i = 0; i < count && !stopped; i++) {
+               int value = searchMove(rootMoves[i], player, depth, alpha, INFINITY, 0);
+               if (!stopped && value > score) {
+                  score = value;
+                  bestThisDepth = rootMoves[i];
+                  if (value > alpha)
+                     alpha = value;
+               }
+            }
+            if (stopped)
+               break;
+            best = bestThisDepth;
+            bestScore = score;
+            depthReached = depth;
+            moveToFront(rootMoves, count, best);   // search the best move first next time
+            if (progress != null)
+               progress.depthCompleted(new CheckersMove(best), depth, score);
+            if (score >= WIN - MAX_PLY || score <= -WIN + MAX_PLY)
+               break;   // a forced win or loss has been found
+         }
+      }
+
+      elapsedMillis = System.currentTimeMillis() - start;
+      if (EngineMetrics.enabled) {
+         EngineMetrics.INSTANCE.searchCounts(nodes, expandedNodes, cutoffs, firstMoveCutoffs, tableProbes, tableHits,
+               chainHops);
+         if (helperId == 0)   // the main engine's time is the search's: the helpers are stopped when it returns
+            EngineMetrics.INSTANCE.searched(System.nanoTime() - startNanos);
+      }
+      return new CheckersMove(best);
+   }
+
+
+   /**
+    * Make a move and return its score for player.  If the move is a jump
+    * that can be continued, the same player moves again; otherwise it is
+    * the opponent's turn with one less ply of depth.
+    */
+   private int searchMove(int move, int player, int depth, int alpha, int beta, int ply) {
+      int value;
+      data.makeMove(move);
+      int to = CheckersMove.toSquare(move);
+      if (CheckersMove.isPackedJump(move) && data.generateJumpsFrom(player, to, moves[ply + 1]) > 0) {
+         chainHops++;
+         value = search(player, depth, alpha, beta, ply + 1, to);
+      }
+      else
+         value = -search(CheckersData.opponent(player), depth - 1, -beta, -alpha, ply + 1, -1);
+      data.unmakeMove();
+      return value;
+   }
+
+
+   /**
+    * Negamax search of the position with player to move.  chainFrom is the
+    * square of a piece that must continue jumping, or -1.  Once depth is
+    * used up, only jumps are searched.
+    */
+   private int search(int player, int depth, int alpha, int beta, int ply, int chainFrom) {
+      NODES.setOpaque(this, nodes + 1);   // read by other threads through nodesSoFar()
+      if ((nodes & 2047) == 0 && System.currentTimeMillis() >= deadline)
+         stopped = true;
+      if (stopped)
+         return 0;
+
+      if (endgames != null && chainFrom < 0
+            && Integer.bitCount(data.redMask | data.blackMask) <= endgames.maxPieces()) {
+         int value = endgames.probe(data, player);
+         if (value != EndgameDatabase.UNKNOWN)
+            return endgameScore(value, ply);
+      }
+
+      int[] list = moves[ply];
+      int count;
+      if (chainFrom >= 0)
+         count = data.generateJumpsFrom(player, chainFrom, list);
+      else
+         count = data.generateMoves(player, list);
+
+      if (count == 0)
+         return -WIN + ply;   // a player who cannot move has lost
+
+      boolean jumps = CheckersMove.isPackedJump(list[0]);
+      if ((depth <= 0 && !jumps) || ply >= MAX_PLY)
+         return Evaluator.evaluate(data, player);
+
+      // The table is only used at the start of a turn and above the horizon.
+      boolean useTable = chainFrom < 0 && depth > 0;
+      long key = 0;
+      int hashMove = 0;
+      if (useTable) {
+         key = data.hashKey(player);
+         long entry = table.probe(key);
+         tableProbes++;
+         if (entry != 0) {
+            tableHits++;
+            hashMove = TranspositionTable.move(entry);
+            if (TranspositionTable.depth(entry) >= depth) {
+               int score = fromTable(TranspositionTable.score(entry), ply);
+               int bound = TranspositionTable.bound(entry);
+               if (bound == TranspositionTable.EXACT
+                     || (bound == TranspositionTable.LOWER && score >= beta)
+                     || (bound == TranspositionTable.UPPER && score <= alpha))
+                  return score;
+            }
+         }
+      }
+
+      int originalAlpha = alpha;
+      int bestMove = 0;
+      orderMoves(list, count, ply, hashMove);
+      expandedNodes++;
+      for (int i = 0; i < count; i++) {
+         pickNext(list, orderScores[ply], i, count);
+         int move = list[i];
+         int value = searchMove(move, player, depth, alpha, beta, ply);
+         if (stopped)
+            return 0;
+         if (value > alpha) {
+            alpha = value;
+            bestMove = move;
+            if (alpha >= beta) {
+               cutoffs++;
+               if (i == 0)
+                  firstMoveCutoffs++;
+               if (!CheckersMove.isPackedJump(move))
+                  rememberCutoff(move, depth, ply);
+               break;
+            }
+         }
+      }
+
+      if (useTable) {
+         int bound;
+         if (alpha >= beta)
+            bound = TranspositionTable.LOWER;
+         else if (alpha > originalAlpha)
+            bound = TranspositionTable.EXACT;
+         else
+            bound = TranspositionTable.UPPER;
+         table.store(key, bestMove, depth, bound, toTable(alpha, ply));
+      }
+      return alpha;
+   }
+
+
+   /**
+    * Turn a value from the endgame databases into a score.  Wins that take
+    * fewer turns score higher, and losses that take more turns score higher.
+    */
+   private static int endgameScore(int value, int ply) {
+      if (value > 0)
+         return WIN - ply - value;
+      if (value < 0)
+         return -WIN + ply + (-value - 1);
+      return 0;
+   }
+
+
+   /**
+    * Win and loss scores depend on the ply they are found at, so they are
+    * stored relative to the position instead of to the root.
+    */
+   private static int toTable(int score, int ply) {
+      if (score >= WIN - MAX_PLY)
+         return score + ply;
+      if (score <= -WIN + MAX_PLY)
+         return score - ply;
+      return score;
+   }
+
+   private static int fromTable(int score, int ply) {
+      if (score >= WIN - MAX_PLY)
+         return score - ply;
+      if (score <= -WIN + MAX_PLY)
+         return score + ply;
+      return score;
+   }
+
+
+   /**
+    * Give each move an ordering score: the best move from the table first,
+    * then the killers for this ply, then the other moves by their history
+    * score.
+    */
+   private void orderMoves(int[] list, int count, int ply, int hashMove) {
+      int[] scores = orderScores[ply];
+      for (int i = 0; i < count; i++) {
+         int move = list[i];
+         if (move == hashMove)
+            scores[i] = Integer.MAX_VALUE;
+         else if (move == killers[ply][0])
+            scores[i] = Integer.MAX_VALUE - 1;
+         else if (move == killers[ply][1])
+            scores[i] = Integer.MAX_VALUE - 2;
+         else
+            scores[i] = history[CheckersMove.fromSquare(move)][CheckersMove.toSquare(move)];
+      }
+   }
+
+
+   /**
+    * Swap the best-scoring of the remaining moves into position i.  Moves
+    * are picked one at a time since a cutoff often comes early.
+    */
+   private static void pickNext(int[] list, int[] scores, int i, int count) {
+      int best = i;
+      for (int j = i + 1; j < count; j++)
+         if (scores[j] > scores[best])
+            best = j;
+      if (best != i) {
+         int move = list[i];
+         list[i] = list[best];
+         list[best] = move;
+         int score = scores[i];
+         scores[i] = scores[best];
+         scores[best] = score;
+      }
+   }
+
+
+   private void rememberCutoff(int move, int depth, int ply) {
+      if (killers[ply][0] != move) {
+         killers[ply][1] = killers[ply][0];
+         killers[ply][0] = move;
+      }
+      history[CheckersMove.fromSquare(move)][CheckersMove.toSquare(move)] += depth * depth;
+   }
+
+
+   private void clearOrdering() {
+      for (int ply = 0; ply <= MAX_PLY; ply++) {
+         killers[ply][0] = 0;
+         killers[ply][1] = 0;
+      }
+      for (int from = 0; from < 32; from++)
+         for (int to = 0; to < 32; to++)
+            history[from][to] = 0;
+   }
+
+
+   private static void rotate(int[] list, int count, int distance) {
+      int[] copy = java.util.Arrays.copyOf(list, count);
+      for (int i = 0; i < count; i++)
+         list[i] = copy[(i + distance) % count];
+   }
+
+
+   private static void moveToFront(int[] list, int count, int move) {
+      for (int i = 0; i < count; i++)
+         if (list[i] == move) {
+            System.arraycopy(list, 0, list, 1, i);
+            list[0] = move;
+            return;
+         }
+   }
+
+
+   /**
+    * Statistics about the last call to findBestMove().
+    */
+   long getNodes() {
+      return nodes;
+   }
+
+   /**
+    * The nodes searched so far, read from another thread while the
+    * search is running.
+    */
+   long nodesSoFar() {
+      return (long) NODES.getOpaque(this);
+   }
+
+   int getDepthReached() {
+      return depthReached;
+   }
+
+   int getBestScore() {
+      return bestScore;
+   }
+
+   long getElapsedMillis() {
+      return elapsedMillis;
+   }
+
+   long getNodesPerSecond() {
+      return nodes * 1000 / Math.max(1, elapsedMillis);
+   }
+}
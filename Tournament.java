@@ -0,0 +1,249 @@
+package checkers;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class plays many games between two move policies, on all cores,
+ * and reports how the first policy did against the second.
+ * Games are played through GameSession, so the forced-jump and multi-jump
+ * rules are exactly those of the Swing board.  The policies swap colors
+ * after every game, so each opening is played from both sides.  Each
+ * game's result is written to the results file as soon as it is finished.
+ */
+
+public class Tournament {
+
+   private final String policyA;
+   private final String policyB;
+   private final List<String> openings;   // "RED <position>" or "BLACK <position>"; empty for the normal start
+   private final int randomPlies;         // moves at the start of a game chosen at random, for variety
+   private final int maxMoves;            // a game still going after this many moves is a draw
+
+   private final LongAdder winsA = new LongAdder();
+   private final LongAdder draws = new LongAdder();
+   private final LongAdder lossesA = new LongAdder();
+   private final LongAdder totalMoves = new LongAdder();
+
+   private Writer results;
+   private GameRecordWriter records;
+
+
+   Tournament(String policyA, String policyB, List<String> openings, int randomPlies, int maxMoves) {
+      this.policyA = policyA;
+      this.policyB = policyB;
+      this.openings = openings;
+      this.randomPlies = randomPlies;
+      this.maxMoves = maxMoves;
+   }
+
+
+   /**
+    * Play the given number of games with the given number of threads,
+    * writing one line per game to results and the moves of every game to
+    * records, if they are not null.  If a thread fails, the others stop
+    * after the games they are playing, and the failure is thrown.
+    */
+   void play(int games, int threads, Writer results, GameRecordWriter records)
+         throws InterruptedException, ExecutionException {
+      this.results = results;
+      this.records = records;
+      AtomicInteger next = new AtomicInteger();
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      CompletionService<Void> workers = new ExecutorCompletionService<Void>(pool);
+      for (int t = 0; t < threads; t++) {
+         long seed = t;
+         workers.submit(() -> {
+            // each thread has its own policies, since they are not thread-safe
+            MovePolicy a = MovePolicy.create(policyA, seed * 2);
+            MovePolicy b = MovePolicy.create(policyB, seed * 2 + 1);
+            Random random = new Random(seed);
+            GameSession game = new GameSession();
+            GameRecord record = new GameRecord();
+            int number;
+            while ((number = next.getAndIncrement()) < games)
+               playGame(number, game, record, a, b, random);
+            return null;
+         });
+      }
+      pool.shutdown();
+      ExecutionException failure = null;
+      for (int t = 0; t < threads; t++) {
+         try {
+            workers.take().get();
+         }
+         catch (ExecutionException e) {
+            if (failure == null)
+               failure = e;
+            next.set(games);   // no more games for the other threads
+         }
+      }
+      if (failure != null)
+         throw failure;
+   }
+
+
+   /**
+    * Play one game.  Policy A is RED in even-numbered games.
+    */
+   private void playGame(int number, GameSession game, GameRecord record, MovePolicy a, MovePolicy b, Random random) {
+      String opening = "start";
+      if (openings.isEmpty())
+         game.newGame();
+      else {
+         opening = openings.get((number / 2) % openings.size());
+         String[] parts = opening.split(" ");
+         game.startFrom(parts[1], parts[0].equalsIgnoreCase("black") ? CheckersData.BLACK : CheckersData.RED);
+      }
+      boolean aIsRed = number % 2 == 0;
+      record.start(game.board, game.currentPlayer);
+
+      while (game.gameInProgress && game.moveCount < maxMoves) {
+         CheckersMove move;
+         if (game.moveCount < randomPlies)
+            move = game.validMoves[random.nextInt(game.validMoves.length)];
+         else if ((game.currentPlayer == CheckersData.RED) == aIsRed)
+            move = a.chooseMove(game);
+         else
+            move = b.chooseMove(game);
+         game.makeMove(move);
+         record.add(move);
+      }
+
+      String result;
+      if (game.gameInProgress) {
+         draws.increment();
+         result = "draw";
+      }
+      else {
+         if ((game.winner == CheckersData.RED) == aIsRed)
+            winsA.increment();
+         else
+            lossesA.increment();
+         result = game.winner == CheckersData.RED ? "RED" : "BLACK";
+      }
+      totalMoves.add(game.moveCount);
+      record.winner = game.gameInProgress ? CheckersData.EMPTY : game.winner;
+      write(record, number + "," + (aIsRed ? policyA : policyB) + "," + (aIsRed ? policyB : policyA)
+            + "," + result + "," + game.moveCount + "," + opening);
+   }
+
+
+   private synchronized void write(GameRecord record, String line) {
+      try {
+         if (results != null) {
+            results.write(line);
+            results.write('\n');
+            results.flush();
+         }
+         if (records != null)
+            records.write(record);
+      }
+      catch (IOException e) {
+         throw new IllegalStateException("Cannot write results", e);
+      }
+   }
+
+
+   /**
+    * Print the results so far: wins, draws and losses for policy A, its
+    * score with a 95% confidence interval, and the speed.
+    */
+   void report(double seconds) {
+      long w = winsA.sum();
+      long d = draws.sum();
+      long l = lossesA.sum();
+      long n = w + d + l;
+      if (n == 0)
+         return;
+      double score = (w + 0.5 * d) / n;
+      double variance = (w * Math.pow(1 - score, 2) + d * Math.pow(0.5 - score, 2) + l * Math.pow(score, 2)) / n;
+      double margin = 1.96 * Math.sqrt(variance / n);
+      System.out.printf("%s vs %s: %d games, +%d =%d -%d%n", policyA, policyB, n, w, d, l);
+      System.out.printf("score for %s: %.1f%% +/- %.1f%% (95%%)%n", policyA, score * 100, margin * 100);
+      System.out.printf("average length %.1f moves, %.1f games/sec, %.0f moves/sec%n",
+            (double) totalMoves.sum() / n, n / seconds, totalMoves.sum() / seconds);
+   }
+
+
+   static List<String> readOpenings(String fileName) throws IOException {
+      List<String> openings = new ArrayList<String>();
+      try (BufferedReader in = new BufferedReader(new FileReader(fileName))) {
+         String line;
+         while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.length() > 0 && !line.startsWith("#"))
+               openings.add(line);
+         }
+      }
+      return openings;
+   }
+
+
+   /**
+    * Command line:
+    *   Tournament games policyA policyB [-threads n] [-out file] [-openings file]
+    *                                    [-randomPlies n] [-maxMoves n] [-record file]
+    * Policies are as in MovePolicy.create(), e.g. random, greedy or search:4.
+    * An openings file has one position per line: RED or BLACK for the side
+    * to move, a space, and the 32 squares.  The record file gets every
+    * game in the binary format of GameRecordWriter.
+    */
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.out.println("Usage: Tournament games policyA policyB [-threads n] [-out file] [-openings file]"
+               + " [-randomPlies n] [-maxMoves n] [-record file]");
+         return;
+      }
+      int games = Integer.parseInt(args[0]);
+      EngineMetrics.install();
+      int threads = Runtime.getRuntime().availableProcessors();
+      String out = null;
+      String record = null;
+      List<String> openings = new ArrayList<String>();
+      int randomPlies = 0;
+      int maxMoves = 400;
+      for (int i = 3; i + 1 < args.length; i += 2) {
+         switch (args[i]) {
+         case "-threads": threads = Integer.parseInt(args[i + 1]); break;
+         case "-out": out = args[i + 1]; break;
+         case "-openings": openings = readOpenings(args[i + 1]); break;
+         case "-randomPlies": randomPlies = Integer.parseInt(args[i + 1]); break;
+         case "-maxMoves": maxMoves = Integer.parseInt(args[i + 1]); break;
+         case "-record": record = args[i + 1]; break;
+         default: throw new IllegalArgumentException("Unknown option " + args[i]);
+         }
+      }
+
+      // a bad policy or an unreadable book fails here, before any game is played
+      MovePolicy.create(args[1], 0);
+      MovePolicy.create(args[2], 0);
+
+      Tournament tournament = new Tournament(args[1], args[2], openings, randomPlies, maxMoves);
+      long start = System.nanoTime();
+      try (Writer results = out == null ? null : new BufferedWriter(new FileWriter(out));
+           GameRecordWriter records = record == null ? null : GameRecordWriter.create(Paths.get(record))) {
+         if (results != null)
+            results.write("game,red,black,winner,moves,opening\n");
+         tournament.play(games, threads, results, records);
+      }
+      tournament.report((System.nanoTime() - start) / 1e9);
+      if (EngineMetrics.enabled)
+         System.out.println(EngineMetrics.INSTANCE.dump());
+   }
+}
@@ -0,0 +1,107 @@
+package checkers;
+
+/**
+ * This class remembers the results of searches by position, so that a
+ * position reached again by a different order of moves is not searched
+ * again.  Each entry is two longs in one big array: the key XORed with the
+ * data, and the data itself.
+ * Searcher threads share the table without locks.  Two threads writing the
+ * same entry at once can leave it with halves from different writes, but
+ * then the XOR of the two longs no longer gives the key, so probe() simply
+ * treats it as a miss.
+ * An entry is replaced by a search of at least the same depth, or by any
+ * search once it is left over from an earlier findBestMove().
+ */
+
+public class TranspositionTable {
+
+   static final int EXACT = 0;
+   static final int LOWER = 1;   // the score is at least the stored value (beta cutoff)
+   static final int UPPER = 2;   // the score is at most the stored value (fail low)
+
+   /* Layout of the data long: the packed move in bits 0-15, the depth in
+      bits 16-23, the bound in bits 24-25, the search generation in bits
+      26-31 and the score in bits 32-63. */
+
+   private final long[] table;
+   private final int mask;      // number of entries - 1
+   private int generation;
+
+
+   /**
+    * Create a table using about the given number of megabytes.
+    */
+   TranspositionTable(int megabytes) {
+      long entries = Long.highestOneBit(Math.max(1L, (long) megabytes << 20) / 16);
+      entries = Math.min(entries, 1 << 29);
+      table = new long[(int) entries * 2];
+      mask = (int) entries - 1;
+   }
+
+
+   /**
+    * Start a new search, so that entries from earlier ones can be replaced.
+    */
+   void newSearch() {
+      generation = (generation + 1) & 63;
+   }
+
+
+   void clear() {
+      java.util.Arrays.fill(table, 0);
+   }
+
+
+   /**
+    * Return the data stored for key, or 0 if there is none.  A stored
+    * entry is never 0 since its depth is at least 1.
+    */
+   long probe(long key) {
+      int i = index(key);
+      long data = table[i + 1];
+      if ((table[i] ^ data) != key)
+         return 0;
+      return data;
+   }
+
+
+   void store(long key, int move, int depth, int bound, int score) {
+      int i = index(key);
+      long old = table[i + 1];
+      boolean sameKey = (table[i] ^ old) == key;
+      if (old != 0 && generation(old) == generation && depth(old) > depth && !sameKey)
+         return;
+      if (move == 0 && sameKey)
+         move = move(old);   // keep the best move from a shallower search
+      long data = (move & 0xFFFFL) | ((long) Math.min(depth, 255) << 16) | ((long) bound << 24)
+            | ((long) generation << 26) | ((long) score << 32);
+      table[i] = key ^ data;
+      table[i + 1] = data;
+   }
+
+
+   private int index(long key) {
+      return ((int) (key ^ (key >>> 32)) & mask) << 1;
+   }
+
+
+   static int move(long data) {
+      return (int) data & 0xFFFF;
+   }
+
+   static int depth(long data) {
+      return (int) (data >>> 16) & 0xFF;
+   }
+
+   static int bound(long data) {
+      return (int) (data >>> 24) & 3;
+   }
+
+   static int generation(long data) {
+      return (int) (data >>> 26) & 63;
+   }
+
+   static int score(long data) {
+      return (int) (data >> 32);
+   }
+}
@@ -0,0 +1,38 @@
+package checkers;
+
+/**
+ * The positions the benchmarks are run on, from the opening to the endgame.
+ * Each is the player to move and the 32 squares as read by
+ * CheckersData.setUpPosition().
+ */
+
+public class BenchmarkPositions {
+
+   static final String OPENING = "bbbbbbbbbbbb........rrrrrrrrrrrr";
+   static final String MIDGAME = "b..b.b.bbbbb....rrrb...br..rrrr.";
+   static final String KINGS = "B.....B.R.......B.r...R..b...R..";
+   static final String ENDGAME = "R..R.B..................bb...B..";
+
+
+   /**
+    * Set up the named position on data and return the player to move.
+    */
+   static int setUp(CheckersData data, String name) {
+      switch (name) {
+      case "opening":
+         data.setUpPosition(OPENING);
+         return CheckersData.RED;
+      case "midgame":
+         data.setUpPosition(MIDGAME);
+         return CheckersData.RED;
+      case "kings":
+         data.setUpPosition(KINGS);
+         return CheckersData.BLACK;
+      case "endgame":
+         data.setUpPosition(ENDGAME);
+         return CheckersData.RED;
+      default:
+         throw new IllegalArgumentException("Unknown position " + name);
+      }
+   }
+}
@@ -0,0 +1,207 @@
+package checkers;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for the rules in CheckersData: generating moves, checking
+ * single jumps and moves, and making moves, on each of the positions in
+ * BenchmarkPositions.  Every benchmark leaves the board as it found it.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class RulesBenchmark {
+
+   @Param({ "opening", "midgame", "kings", "endgame" })
+   String position;
+
+   CheckersData data;        // generates moves from the masks
+   CheckersData scanData;    // the same position, generating moves by scanning checkerBoard
+   CheckersData cachedData;  // the same position, with the incremental move cache on
+   int player;
+
+   int[] pieceSquares;       // the squares of the player's pieces
+   int[] packedMoves = new int[CheckersData.MAX_MOVES];
+   int moveCount;
+   CheckersMove[] moves;
+   int[] buffer = new int[CheckersData.MAX_MOVES];
+   long[] turns = new long[CheckersData.MAX_MOVES];
+   int turnCount;
+
+
+   @Setup
+   public void setUp() {
+      data = new CheckersData();
+      player = BenchmarkPositions.setUp(data, position);
+      scanData = new CheckersData(data);
+      scanData.bitboardMode = false;
+      cachedData = new CheckersData(data);
+      cachedData.setMoveCache(true);
+      int own = player == CheckersData.RED ? data.redMask : data.blackMask;
+      pieceSquares = new int[Integer.bitCount(own)];
+      for (int i = 0; own != 0; i++) {
+         pieceSquares[i] = Integer.numberOfTrailingZeros(own);
+         own &= own - 1;
+      }
+      moveCount = data.generateMoves(player, packedMoves);
+      moves = data.getValidMoves(player);
+      turnCount = data.generateTurns(player, turns);
+   }
+
+
+   @Benchmark
+   public CheckersMove[] getValidMoves() {
+      return data.getValidMoves(player);
+   }
+
+
+   @Benchmark
+   public CheckersMove[] getValidMovesScan() {
+      return scanData.getValidMoves(player);
+   }
+
+
+   @Benchmark
+   public int generateMoves() {
+      return data.generateMoves(player, buffer);
+   }
+
+
+   @Benchmark
+   public int generateMovesCached() {
+      return cachedData.generateMoves(player, buffer);
+   }
+
+
+   /**
+    * Whole turns, with every jump chain walked to its end.
+    */
+   @Benchmark
+   public int generateTurns() {
+      return data.generateTurns(player, turns);
+   }
+
+
+   @Benchmark
+   public boolean mustJumpCached() {
+      return cachedData.mustJump(player);
+   }
+
+
+   @Benchmark
+   public void getValidJumpsFrom(Blackhole blackhole) {
+      for (int sq : pieceSquares)
+         blackhole.consume(data.getValidJumpsFrom(player, CheckersData.rowOf(sq), CheckersData.colOf(sq)));
+   }
+
+
+   @Benchmark
+   public int jumpPossible() {
+      int jumps = 0;
+      for (int sq : pieceSquares) {
+         int row = CheckersData.rowOf(sq);
+         int col = CheckersData.colOf(sq);
+         for (int dr = -1; dr <= 1; dr += 2)
+            for (int dc = -1; dc <= 1; dc += 2)
+               if (data.jumpPossible(player, row, col, row + dr, col + dc, row + 2*dr, col + 2*dc))
+                  jumps++;
+      }
+      return jumps;
+   }
+
+
+   @Benchmark
+   public int movePossible() {
+      int count = 0;
+      for (int sq : pieceSquares) {
+         int row = CheckersData.rowOf(sq);
+         int col = CheckersData.colOf(sq);
+         for (int dr = -1; dr <= 1; dr += 2)
+            for (int dc = -1; dc <= 1; dc += 2)
+               if (data.movePossible(player, row, col, row + dr, col + dc))
+                  count++;
+      }
+      return count;
+   }
+
+
+   /**
+    * doMove() cannot be undone, so each legal move is made on a fresh copy;
+    * copyBoard() measures the copy alone.
+    */
+   @Benchmark
+   public void doMove(Blackhole blackhole) {
+      for (CheckersMove move : moves) {
+         CheckersData copy = new CheckersData(data);
+         copy.doMove(move.r1, move.c1, move.r2, move.c2);
+         blackhole.consume(copy);
+      }
+   }
+
+
+   @Benchmark
+   public CheckersData copyBoard() {
+      return new CheckersData(data);
+   }
+
+
+   @Benchmark
+   public long makeUnmakeMove() {
+      for (int i = 0; i < moveCount; i++) {
+         data.makeMove(packedMoves[i]);
+         data.unmakeMove();
+      }
+      return data.zobristKey;
+   }
+
+
+   @Benchmark
+   public long makeUnmakeTurn() {
+      for (int i = 0; i < turnCount; i++) {
+         data.makeTurn(turns[i]);
+         data.unmakeTurn();
+      }
+      return data.zobristKey;
+   }
+
+
+   /**
+    * makeUnmakeMove() with the move cache kept up to date on every change.
+    */
+   @Benchmark
+   public long makeUnmakeMoveCached() {
+      for (int i = 0; i < moveCount; i++) {
+         cachedData.makeMove(packedMoves[i]);
+         cachedData.unmakeMove();
+      }
+      return cachedData.zobristKey;
+   }
+
+
+   /**
+    * The cost of wrapping every generated move in a CheckersMove, as
+    * getValidMoves() does.
+    */
+   @Benchmark
+   public void checkersMoveAllocation(Blackhole blackhole) {
+      for (int i = 0; i < moveCount; i++)
+         blackhole.consume(new CheckersMove(packedMoves[i]));
+   }
+}